@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava;
+
+import io.github.spencerpark.jupyter.kernel.ReplacementOptions;
+import io.github.spencerpark.jupyter.kernel.display.DisplayData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the requests a frontend sends while the user is typing. The kernel is created
+ * in process and is never connected.
+ * <p>
+ * The kernel caches completions and inspections until the shell changes, so after the first
+ * invocation the plain benchmarks measure a cache hit, like a repeated request. The {@code Cold}
+ * variants put a different comment in front of the code on every invocation so that the shell
+ * is asked every time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JavaKernelBenchmark {
+    private static final String COMPLETE_MEMBER = "List<String> names = new ArrayList<>();\nnames.st";
+    private static final String COMPLETE_TYPE = "Conc";
+    private static final String INSPECT = "System.out.println(\"hello\");";
+
+    private JavaKernel kernel;
+    private long invocation = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        this.kernel = new JavaKernel();
+
+        // Initialize the shell outside of the measurements.
+        this.kernel.evalRaw("int x = 0;");
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.kernel.onShutdown(false);
+    }
+
+    private String uncached(String code) {
+        return "/* " + this.invocation++ + " */ " + code;
+    }
+
+    @Benchmark
+    public ReplacementOptions completeMember() {
+        return this.kernel.complete(COMPLETE_MEMBER, COMPLETE_MEMBER.length());
+    }
+
+    @Benchmark
+    public ReplacementOptions completeMemberCold() {
+        String code = this.uncached(COMPLETE_MEMBER);
+        return this.kernel.complete(code, code.length());
+    }
+
+    @Benchmark
+    public ReplacementOptions completeType() {
+        return this.kernel.complete(COMPLETE_TYPE, COMPLETE_TYPE.length());
+    }
+
+    @Benchmark
+    public ReplacementOptions completeTypeCold() {
+        String code = this.uncached(COMPLETE_TYPE);
+        return this.kernel.complete(code, code.length());
+    }
+
+    @Benchmark
+    public DisplayData inspect() {
+        return this.kernel.inspect(INSPECT, INSPECT.indexOf("println") + 2, false);
+    }
+
+    @Benchmark
+    public DisplayData inspectCold() {
+        String code = this.uncached(INSPECT);
+        return this.kernel.inspect(code, code.indexOf("println") + 2, false);
+    }
+}
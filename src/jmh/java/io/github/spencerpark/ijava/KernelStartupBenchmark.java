@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava;
+
+import org.openjdk.jmh.annotations.*;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks how long it takes for a new kernel process to answer its first request. Each
+ * invocation launches {@link IJava#main(String[])} in a new JVM and measures until the
+ * {@code kernel_info_reply} is received, which is the first thing a frontend waits for after
+ * starting a kernel. JVM startup is included as that is part of what the user waits for.
+ * <p>
+ * The kernel is configured by the environment of the benchmark, ex: set {@code IJAVA_EAGER_INIT}
+ * before running it to measure the startup with eager initialization. The resident set size of the
+ * kernel after it replied is printed with each iteration (only on linux) as jmh can't report it
+ * alongside single shot times.
+ * <p>
+ * To compare the startup with and without a class data sharing archive, point the benchmark at
+ * the installed kernel jar, the archive is only used with the class path it was created for:
+ * <pre>
+ * gradlew jmh -PjmhInclude=KernelStartupBenchmark \
+ *   -Pjmh.params="kernelClasspath=/path/to/kernel/ijava.jar;jvmArgs=-Xshare:off,-XX:SharedArchiveFile=/path/to/kernel/ijava.jsa"
+ * </pre>
+ * or with the jmh jar: {@code -p kernelClasspath=... -p jvmArgs=-Xshare:off,-XX:SharedArchiveFile=...}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class KernelStartupBenchmark {
+    private static final String DELIMITER = "<IDS|MSG>";
+    private static final String EMPTY_DICT = "{}";
+    private static final int REPLY_TIMEOUT_MS = 60_000;
+
+    /**
+     * The class path to launch the kernel with. Empty to use the class path of the benchmark.
+     */
+    @Param({ "" })
+    public String kernelClasspath;
+
+    /**
+     * Space separated options for the kernel's JVM.
+     */
+    @Param({ "-Xshare:auto" })
+    public String jvmArgs;
+
+    private final String key = UUID.randomUUID().toString();
+    private final String session = UUID.randomUUID().toString();
+
+    private ZContext context;
+    private ZMQ.Socket shell;
+    private Path connectionFile;
+    private Process kernel;
+    private long rssKb;
+
+    @Setup(Level.Invocation)
+    public void setup() throws IOException {
+        int[] ports = new int[5];
+        for (int i = 0; i < ports.length; i++)
+            ports[i] = KernelStartupBenchmark.freePort();
+
+        this.connectionFile = Files.createTempFile("ijava-startup-", ".json");
+        String connection = String.format("{"
+                        + "\"shell_port\": %d, \"iopub_port\": %d, \"stdin_port\": %d, \"control_port\": %d, \"hb_port\": %d, "
+                        + "\"ip\": \"127.0.0.1\", \"transport\": \"tcp\", \"signature_scheme\": \"hmac-sha256\", \"key\": \"%s\""
+                        + "}",
+                ports[0], ports[1], ports[2], ports[3], ports[4], this.key);
+        Files.write(this.connectionFile, connection.getBytes(StandardCharsets.UTF_8));
+
+        // Connecting before the kernel binds is fine, the request is queued until it does.
+        this.context = new ZContext();
+        this.shell = this.context.createSocket(SocketType.DEALER);
+        this.shell.setReceiveTimeOut(REPLY_TIMEOUT_MS);
+        this.shell.connect("tcp://127.0.0.1:" + ports[0]);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+        if (this.rssKb > 0)
+            System.out.printf("kernel rss: %d kB%n", this.rssKb);
+
+        if (this.kernel != null) {
+            this.kernel.destroy();
+            if (!this.kernel.waitFor(10, TimeUnit.SECONDS))
+                this.kernel.destroyForcibly().waitFor();
+            this.kernel = null;
+        }
+
+        this.context.close();
+        Files.deleteIfExists(this.connectionFile);
+    }
+
+    @Benchmark
+    public String kernelInfo() throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : this.jvmArgs.trim().split("\\s+"))
+            if (!arg.isEmpty()) command.add(arg);
+        command.add("-cp");
+        command.add(this.kernelClasspath.isEmpty() ? System.getProperty("java.class.path") : this.kernelClasspath);
+        command.add(IJava.class.getName());
+        command.add(this.connectionFile.toString());
+
+        this.rssKb = 0;
+        this.kernel = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        this.send("kernel_info_request");
+
+        String reply;
+        while ((reply = this.shell.recvStr()) != null) {
+            if (reply.contains("\"kernel_info_reply\"")) {
+                this.rssKb = KernelStartupBenchmark.residentSetKb(this.kernel);
+                return reply;
+            }
+        }
+
+        throw new IllegalStateException("The kernel did not reply within " + REPLY_TIMEOUT_MS + "ms.");
+    }
+
+    private void send(String msgType) throws Exception {
+        String header = String.format("{\"msg_id\": \"%s\", \"session\": \"%s\", \"username\": \"benchmark\", "
+                        + "\"date\": \"%s\", \"msg_type\": \"%s\", \"version\": \"5.3\"}",
+                UUID.randomUUID(), this.session, ZonedDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME), msgType);
+
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec(this.key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        for (String part : new String[]{ header, EMPTY_DICT, EMPTY_DICT, EMPTY_DICT })
+            hmac.update(part.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder signature = new StringBuilder();
+        for (byte b : hmac.doFinal())
+            signature.append(String.format("%02x", b));
+
+        this.shell.sendMore(DELIMITER);
+        this.shell.sendMore(signature.toString());
+        this.shell.sendMore(header);
+        this.shell.sendMore(EMPTY_DICT);
+        this.shell.sendMore(EMPTY_DICT);
+        this.shell.send(EMPTY_DICT);
+    }
+
+    private static long residentSetKb(Process process) throws IOException {
+        Path status = Paths.get("/proc", Long.toString(process.pid()), "status");
+        if (!Files.isReadable(status))
+            return 0;
+
+        for (String line : Files.readAllLines(status)) {
+            // Formatted as "VmRSS:     1234 kB"
+            if (line.startsWith("VmRSS:"))
+                return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim());
+        }
+
+        return 0;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import io.github.spencerpark.jupyter.kernel.display.Renderer;
+import io.github.spencerpark.jupyter.kernel.display.common.Image;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering a 50 MB png for a display message. The {@code imageio} mode is what
+ * {@code display(stream, "image/png")} does, decoding the image and encoding it again. The
+ * {@code readAllBytes} mode is the usual workaround of reading the file and encoding it in one go.
+ * The {@code mapped} and {@code stream} modes use {@link Base64Payload}, like
+ * {@code displayBytes}. Run with {@code -prof gc} to compare the allocations.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class Base64PayloadBenchmark {
+    private static final int IMAGE_SIZE = 4096;
+
+    @Param({ "imageio", "readAllBytes", "mapped", "stream" })
+    public String mode;
+
+    private Path image;
+    private Renderer renderer;
+
+    @Setup
+    public void setup() throws IOException {
+        // Noise doesn't compress, a 4096x4096 rgb png of it is about 50 MB.
+        BufferedImage noise = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < IMAGE_SIZE; y++)
+            for (int x = 0; x < IMAGE_SIZE; x++)
+                noise.setRGB(x, y, random.nextInt());
+
+        this.image = Files.createTempFile("ijava-payload", ".png");
+        ImageIO.write(noise, "png", this.image.toFile());
+
+        this.renderer = new Renderer();
+        Image.registerAll(this.renderer);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.image);
+    }
+
+    @Benchmark
+    public Object render() throws IOException {
+        switch (this.mode) {
+            case "imageio":
+                try (InputStream in = Files.newInputStream(this.image)) {
+                    return this.renderer.renderAs(in, "image/png");
+                }
+            case "readAllBytes":
+                return Base64.getEncoder().encodeToString(Files.readAllBytes(this.image));
+            case "mapped":
+                return Base64Payload.encode(this.image);
+            case "stream":
+                try (InputStream in = Files.newInputStream(this.image)) {
+                    return Base64Payload.encode(in);
+                }
+            default:
+                throw new IllegalArgumentException(this.mode);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import io.github.spencerpark.ijava.IJava;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link CodeEvaluator} as the kernel uses it, with the default startup script but
+ * without a connection to a frontend. Output from the evaluated code is discarded.
+ * <p>
+ * Unchanged methods and imports aren't compiled again, so {@link #evalDeclarations()} measures
+ * re-running a cell while {@link #evalDeclarationsCold()} changes the methods on every invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodeEvaluatorBenchmark {
+    private static final String EXPRESSION = "1 + 2";
+
+    private static final String MULTI_STATEMENT = String.join("\n",
+            "int a = 1;",
+            "int b = a + 1;",
+            "String s = \"\" + a + b;",
+            "s.length() + a + b"
+    );
+
+    private static final String DECLARATIONS = String.join("\n",
+            "int square(int x) { return x * x; }",
+            "int cube(int x) { return x * square(x); }",
+            "class Point { final int x, y; Point(int x, int y) { this.x = x; this.y = y; } }",
+            "import java.util.function.*;"
+    );
+
+    private static final String CHANGED_DECLARATIONS = String.join("\n",
+            "int square(int x) { return x * x + %1$d; }",
+            "int cube(int x) { return x * square(x) - %1$d; }",
+            "class Point { final int x, y; Point(int x, int y) { this.x = x; this.y = y; } }",
+            "import java.util.function.*;"
+    );
+
+    private static final String INCOMPLETE = String.join("\n",
+            "int fib(int n) {",
+            "    if (n < 2) return n;",
+            "    return fib(n - 1) + fib(n - 2);",
+            "}",
+            "for (int i = 0; i < 10; i++) {",
+            "    System.out.println(fib(i));"
+    );
+
+    private CodeEvaluator evaluator;
+    private long invocation = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        });
+
+        this.evaluator = new CodeEvaluatorBuilder()
+                .startupScript(IJava.resource(IJava.DEFAULT_SHELL_INIT_RESOURCE_PATH))
+                .stdout(discard)
+                .stderr(discard)
+                .build();
+
+        // Run the startup scripts outside of the measurements.
+        this.evaluator.warmUp();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.evaluator.shutdown();
+    }
+
+    @Benchmark
+    public Object evalExpression() throws Exception {
+        return this.evaluator.eval(EXPRESSION);
+    }
+
+    @Benchmark
+    public Object evalMultiStatement() throws Exception {
+        return this.evaluator.eval(MULTI_STATEMENT);
+    }
+
+    @Benchmark
+    public Object evalDeclarations() throws Exception {
+        return this.evaluator.eval(DECLARATIONS);
+    }
+
+    @Benchmark
+    public Object evalDeclarationsCold() throws Exception {
+        return this.evaluator.eval(String.format(CHANGED_DECLARATIONS, this.invocation++));
+    }
+
+    @Benchmark
+    public String isCompleteComplete() {
+        return this.evaluator.isComplete(MULTI_STATEMENT);
+    }
+
+    @Benchmark
+    public String isCompleteIncomplete() {
+        return this.evaluator.isComplete(INCOMPLETE);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of dispatching a single {@code doit} method to each of the
+ * executors supported by {@link IJavaExecutionControlProvider#EXECUTOR_KEY}. The invoked
+ * method does nothing so the score is the cost of the hand off to and from the executor.
+ * The {@code virtual} mode fails to set up on runtimes without virtual threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorDispatchBenchmark {
+    public static Object doit() {
+        return null;
+    }
+
+    @Param({ "cached", "single", "bounded:2", "virtual" })
+    public String executor;
+
+    private IJavaExecutionControl control;
+    private Method doitMethod;
+
+    @Setup
+    public void setup() throws Throwable {
+        IJavaExecutionControlProvider provider = new IJavaExecutionControlProvider();
+        this.control = (IJavaExecutionControl) provider.generate(null, Map.of(
+                IJavaExecutionControlProvider.EXECUTOR_KEY, this.executor
+        ));
+        this.doitMethod = ExecutorDispatchBenchmark.class.getMethod("doit");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.control.stop();
+    }
+
+    @Benchmark
+    public Object dispatch() throws Exception {
+        return this.control.takeResult(this.control.invoke(this.doitMethod));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MagicsSourceTransformerBenchmark {
+    private static final String NO_MAGICS = String.join("\n",
+            "int a = 1;",
+            "String s = \"%not a magic\";",
+            "System.out.println(s + a);"
+    );
+
+    private static final String LINE_MAGICS = String.join("\n",
+            "%maven com.example:library:1.0.0",
+            "%jars lib/*.jar",
+            "List<String> cp = %classpath build/classes",
+            "System.out.println(cp);"
+    );
+
+    private static final String CELL_MAGIC = String.join("\n",
+            "%%loadFromPOM",
+            "<dependency>",
+            "  <groupId>com.example</groupId>",
+            "  <artifactId>library</artifactId>",
+            "  <version>1.0.0</version>",
+            "</dependency>"
+    );
+
+    private MagicsSourceTransformer transformer;
+
+    @Setup
+    public void setup() {
+        this.transformer = new MagicsSourceTransformer();
+    }
+
+    @Benchmark
+    public String noMagics() {
+        return this.transformer.transformMagics(NO_MAGICS);
+    }
+
+    @Benchmark
+    public String lineMagics() {
+        return this.transformer.transformMagics(LINE_MAGICS);
+    }
+
+    @Benchmark
+    public String cellMagic() {
+        return this.transformer.transformMagics(CELL_MAGIC);
+    }
+}
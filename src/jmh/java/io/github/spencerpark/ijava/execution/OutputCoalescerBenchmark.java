@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many lines per second a cell printing in a tight loop gets delivered to the
+ * frontend, writing straight to a stream that sends every flush as a message like the kernel
+ * did before and through an {@link OutputCoalescer}. Each message is serialized and signed like
+ * a real stream message, which is where the time goes when every line is a message. The
+ * {@code messages} counter reports how many messages were sent.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputCoalescerBenchmark {
+    private static final int LINES = 1000;
+
+    @Param({ "direct", "coalesced" })
+    public String pipeline;
+
+    private MessageSink sink;
+    private OutputCoalescer coalescer;
+    private PrintStream out;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Messages {
+        public long messages;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        this.sink = new MessageSink();
+        if (this.pipeline.equals("direct")) {
+            this.out = new PrintStream(this.sink, true, StandardCharsets.UTF_8.name());
+        } else {
+            this.coalescer = new OutputCoalescer();
+            this.out = new PrintStream(this.coalescer.coalesce(this.sink), false, StandardCharsets.UTF_8.name());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void println(Messages messages) {
+        long sent = this.sink.sent;
+        for (int i = 0; i < LINES; i++)
+            this.out.println("line " + i);
+        // The end of the cell delivers everything that is still buffered.
+        if (this.coalescer != null)
+            this.coalescer.flush();
+        messages.messages += this.sink.sent - sent;
+    }
+
+    /**
+     * Sends every flush as a message, like the kernel's {@code JupyterOutputStream}.
+     */
+    private static class MessageSink extends ByteArrayOutputStream {
+        private final Gson gson = new Gson();
+        private final Mac mac;
+        private long sent = 0;
+
+        private MessageSink() throws Exception {
+            this.mac = Mac.getInstance("HmacSHA256");
+            this.mac.init(new SecretKeySpec("benchmark".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        }
+
+        @Override
+        public void flush() {
+            if (super.count == 0)
+                return;
+
+            Map<String, String> content = new LinkedHashMap<>();
+            content.put("name", "stdout");
+            content.put("text", new String(super.buf, 0, super.count, StandardCharsets.UTF_8));
+            super.reset();
+
+            this.mac.update(this.gson.toJson(content).getBytes(StandardCharsets.UTF_8));
+            this.mac.doFinal();
+            this.sent++;
+        }
+    }
+}
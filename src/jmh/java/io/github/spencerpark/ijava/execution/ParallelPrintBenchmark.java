@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@code println} from several threads at once, like a cell printing
+ * from a {@code parallelStream()}. The {@code synchronized} pipeline is a regular
+ * {@link PrintStream} over an {@link OutputCoalescer}, which every thread has to lock for every
+ * line. The {@code threaded} pipeline is the coalescer's own print stream which buffers the lines
+ * of each thread separately. The output is discarded so the score is the cost of getting it
+ * there. Run with {@code -t} to change the number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ParallelPrintBenchmark {
+    @Param({ "synchronized", "threaded" })
+    public String pipeline;
+
+    private OutputCoalescer coalescer;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws Exception {
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        this.coalescer = new OutputCoalescer();
+        this.out = this.pipeline.equals("synchronized")
+                ? new PrintStream(this.coalescer.coalesce(sink), false, StandardCharsets.UTF_8.name())
+                : this.coalescer.printStream(sink);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.coalescer.flush();
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        public int i = 0;
+    }
+
+    @Benchmark
+    public void println(Counter counter) {
+        this.out.println("line " + counter.i++);
+    }
+}
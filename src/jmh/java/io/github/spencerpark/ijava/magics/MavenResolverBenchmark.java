@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.magics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+
+/**
+ * Resolves coordinates with overlapping dependencies from a maven repository on the local file
+ * system that stands in for a remote one. Every invocation starts with an empty ivy cache so
+ * that the metadata is parsed and the artifacts are copied each time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MavenResolverBenchmark {
+    private static final String GROUP = "bench";
+    private static final int APPS = 4;
+    private static final int JAR_SIZE = 256 * 1024;
+
+    @Param({ "8", "32" })
+    public int libraries;
+
+    private Path root;
+    private Path repo;
+    private Path cache;
+    private Set<String> from;
+    private List<String> coordinates;
+    private MavenResolver resolver;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        this.root = Files.createTempDirectory("ijava-maven-bench-");
+        this.repo = this.root.resolve("repo");
+        this.cache = this.root.resolve("cache");
+
+        // Each app depends on all of the libraries, the last one on newer versions to
+        // give the resolution some conflicts to settle.
+        List<String> libs = new ArrayList<>();
+        for (int i = 0; i < this.libraries; i++) {
+            this.publish("lib" + i, "1.0", Collections.emptyList());
+            this.publish("lib" + i, "2.0", Collections.emptyList());
+            libs.add("lib" + i);
+        }
+
+        this.coordinates = new ArrayList<>();
+        for (int i = 0; i < APPS; i++) {
+            String version = i == APPS - 1 ? "2.0" : "1.0";
+            this.publish("app" + i, "1.0", libs.stream().map(l -> l + ":" + version).collect(Collectors.toList()));
+            this.coordinates.add(GROUP + ":app" + i + ":1.0");
+        }
+
+        // The ivy settings pick the cache location up from the system properties.
+        System.setProperty("ivy.cache.dir", this.cache.toString());
+
+        this.from = Collections.singleton(this.repo.toUri().toString());
+        this.resolver = new MavenResolver(jar -> { });
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() throws IOException {
+        delete(this.cache);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        delete(this.root);
+    }
+
+    @Benchmark
+    public List<File> resolveTogether() throws Exception {
+        return this.resolver.resolveMavenDependencies(this.coordinates, new LinkedHashSet<>(this.from), 0, true);
+    }
+
+    @Benchmark
+    public List<File> resolveSeparately() throws Exception {
+        List<File> jars = new ArrayList<>();
+        for (String coordinate : this.coordinates)
+            jars.addAll(this.resolver.resolveMavenDependency(coordinate, new LinkedHashSet<>(this.from), 0, true));
+        return jars;
+    }
+
+    private void publish(String artifact, String version, List<String> dependencies) throws IOException {
+        Path dir = this.repo.resolve(GROUP).resolve(artifact).resolve(version);
+        Files.createDirectories(dir);
+
+        StringBuilder pom = new StringBuilder()
+                .append("<project><modelVersion>4.0.0</modelVersion>")
+                .append("<groupId>").append(GROUP).append("</groupId>")
+                .append("<artifactId>").append(artifact).append("</artifactId>")
+                .append("<version>").append(version).append("</version>")
+                .append("<dependencies>");
+        for (String dependency : dependencies) {
+            String[] parts = dependency.split(":");
+            pom.append("<dependency><groupId>").append(GROUP).append("</groupId>")
+                    .append("<artifactId>").append(parts[0]).append("</artifactId>")
+                    .append("<version>").append(parts[1]).append("</version></dependency>");
+        }
+        pom.append("</dependencies></project>");
+
+        String name = artifact + "-" + version;
+        Files.write(dir.resolve(name + ".pom"), pom.toString().getBytes(StandardCharsets.UTF_8));
+
+        byte[] content = new byte[JAR_SIZE];
+        new Random(name.hashCode()).nextBytes(content);
+        try (OutputStream out = Files.newOutputStream(dir.resolve(name + ".jar"));
+             JarOutputStream jar = new JarOutputStream(out)) {
+            jar.putNextEntry(new ZipEntry("data.bin"));
+            jar.write(content);
+            jar.closeEntry();
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path))
+            return;
+
+        List<Path> paths = Files.walk(path).sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        for (Path p : paths)
+            Files.delete(p);
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava;
+
+import io.github.spencerpark.jupyter.kernel.display.RenderContext;
+import io.github.spencerpark.jupyter.kernel.display.Renderer;
+import io.github.spencerpark.jupyter.kernel.display.mime.MIMEType;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.BaseStream;
+
+/**
+ * Renders collections, maps, streams and arrays as {@code text/plain} like their {@code toString()}
+ * but within a budget. At most {@link #setMaxElements(int) maxElements} elements are rendered from
+ * each end, those in between are only counted, and the text is cut off after
+ * {@link #setMaxChars(int) maxChars} characters. Only the rendered elements are visited, other than
+ * collections that can't be iterated from the end, which only show their first elements. A stream
+ * is consumed as far as the elements that are rendered and then closed.
+ * <p>
+ * Elements that are collections, maps, streams or arrays themselves are rendered the same way and
+ * share the character budget.
+ * <p>
+ * A class that overrides {@code toString()}, rather than inheriting it from {@link AbstractCollection},
+ * {@link AbstractMap} or {@link Object}, is rendered with its own {@code toString()} unless it has
+ * more elements than the budget allows.
+ */
+public class BoundedRenderer {
+    public static final int DEFAULT_MAX_ELEMENTS = 50;
+    public static final int DEFAULT_MAX_CHARS = 10_000;
+
+    private static final Set<Class<?>> ARRAY_TYPES = Set.of(
+            Object[].class, boolean[].class, byte[].class, char[].class, short[].class,
+            int[].class, long[].class, float[].class, double[].class
+    );
+
+    private static final ClassValue<Boolean> OWN_TO_STRING = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                Class<?> declaring = type.getMethod("toString").getDeclaringClass();
+                return declaring != Object.class
+                        && declaring != AbstractCollection.class
+                        && declaring != AbstractMap.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    private final Set<Class<?>> registeredArrayTypes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private volatile int maxElements = DEFAULT_MAX_ELEMENTS;
+    private volatile int maxChars = DEFAULT_MAX_CHARS;
+
+    /**
+     * Parse a limit for {@link #setMaxElements(int)}.
+     *
+     * @param maxElements the number of elements to render from each end.
+     *
+     * @return the limit or the {@link #DEFAULT_MAX_ELEMENTS} if {@code maxElements} is {@code null} or blank.
+     */
+    public static int parseMaxElements(String maxElements) {
+        return BoundedRenderer.parseLimit(maxElements, DEFAULT_MAX_ELEMENTS, "element limit", "elements to render from each end");
+    }
+
+    /**
+     * Parse a limit for {@link #setMaxChars(int)}.
+     *
+     * @param maxChars the number of characters to render.
+     *
+     * @return the limit or the {@link #DEFAULT_MAX_CHARS} if {@code maxChars} is {@code null} or blank.
+     */
+    public static int parseMaxChars(String maxChars) {
+        return BoundedRenderer.parseLimit(maxChars, DEFAULT_MAX_CHARS, "character limit", "characters to render");
+    }
+
+    private static int parseLimit(String limit, int defaultLimit, String name, String unit) {
+        if (limit == null || limit.trim().isEmpty())
+            return defaultLimit;
+
+        try {
+            return Integer.parseInt(limit.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid render %s '%s'. Expected a number of %s or 0 for no limit.", name, limit, unit), e);
+        }
+    }
+
+    /**
+     * @param maxElements the number of elements to render from the start and from the end of each
+     *                    collection or 0 for all of them.
+     */
+    public void setMaxElements(int maxElements) {
+        this.maxElements = maxElements;
+    }
+
+    public int getMaxElements() {
+        return this.maxElements;
+    }
+
+    /**
+     * @param maxChars the number of characters to cut the text off after or 0 for no limit.
+     */
+    public void setMaxChars(int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    public int getMaxChars() {
+        return this.maxChars;
+    }
+
+    public void registerAll(Renderer renderer) {
+        renderer.createRegistration(Collection.class)
+                .preferring(MIMEType.TEXT_PLAIN)
+                .register(this::render);
+        renderer.createRegistration(Map.class)
+                .preferring(MIMEType.TEXT_PLAIN)
+                .register(this::render);
+        renderer.createRegistration(BaseStream.class)
+                .preferring(MIMEType.TEXT_PLAIN)
+                .register(this::render);
+
+        renderer.register(Set.of(MIMEType.TEXT_PLAIN), Set.of(MIMEType.TEXT_PLAIN), ARRAY_TYPES, this::render);
+    }
+
+    /**
+     * Register the type of {@code o} with the renderer if it is an array of a reference type
+     * other than {@code Object[]}. Renderers are looked up by the exact array type so these are
+     * registered as they come up.
+     *
+     * @param renderer the renderer that is about to render {@code o}.
+     * @param o        the object that is about to be rendered.
+     */
+    public void prepare(Renderer renderer, Object o) {
+        if (o instanceof Object[] && !ARRAY_TYPES.contains(o.getClass()) && this.registeredArrayTypes.add(o.getClass()))
+            renderer.register(Set.of(MIMEType.TEXT_PLAIN), Set.of(MIMEType.TEXT_PLAIN), Set.of(o.getClass()), this::render);
+    }
+
+    private void render(Object data, RenderContext context) {
+        context.renderIfRequested(MIMEType.TEXT_PLAIN, () -> this.format(data));
+    }
+
+    /**
+     * Format the object as text within the budget.
+     *
+     * @param o the object to format.
+     *
+     * @return the formatted text.
+     */
+    public String format(Object o) {
+        return new Format(this.maxElements, this.maxChars).format(o);
+    }
+
+    private static class Format {
+        private final int maxElements;
+        private final int maxChars;
+        private final StringBuilder out = new StringBuilder();
+        private final Set<Object> enclosing = Collections.newSetFromMap(new IdentityHashMap<>());
+        private boolean exhausted = false;
+        private long size = -1;
+
+        private Format(int maxElements, int maxChars) {
+            this.maxElements = maxElements > 0 ? maxElements : Integer.MAX_VALUE / 2;
+            this.maxChars = maxChars > 0 ? maxChars : Integer.MAX_VALUE;
+        }
+
+        private String format(Object o) {
+            if (this.hasOwnToString(o))
+                return String.valueOf(o);
+
+            this.value(o, true);
+
+            if (this.exhausted)
+                this.out.append("...");
+            if (this.size > 2L * this.maxElements || this.exhausted && this.size > 1)
+                this.out.append(" (").append(this.size).append(" elements)");
+
+            return this.out.toString();
+        }
+
+        private void append(String s) {
+            if (this.exhausted)
+                return;
+
+            int room = this.maxChars - this.out.length();
+            if (s.length() > room) {
+                this.out.append(s, 0, room);
+                this.exhausted = true;
+            } else {
+                this.out.append(s);
+            }
+        }
+
+        private void value(Object o, boolean top) {
+            if (this.enclosing.contains(o)) {
+                this.append(o instanceof Map ? "(this Map)" : "(this Collection)");
+            } else if (this.hasOwnToString(o)) {
+                this.append(String.valueOf(o));
+            } else if (o instanceof List) {
+                List<?> list = (List<?>) o;
+                int size = list.size();
+                if (top) this.size = size;
+                this.sequence(o, "[", "]", size, list.iterator(), list instanceof RandomAccess
+                        ? () -> new Iterator<Object>() {
+                            private int i = size;
+
+                            @Override
+                            public boolean hasNext() {
+                                return i > 0;
+                            }
+
+                            @Override
+                            public Object next() {
+                                return list.get(--i);
+                            }
+                        }
+                        : () -> reverse(list.listIterator(size)));
+            } else if (o instanceof Deque) {
+                Deque<?> deque = (Deque<?>) o;
+                if (top) this.size = deque.size();
+                this.sequence(o, "[", "]", deque.size(), deque.iterator(), deque::descendingIterator);
+            } else if (o instanceof NavigableSet) {
+                NavigableSet<?> set = (NavigableSet<?>) o;
+                if (top) this.size = set.size();
+                this.sequence(o, "[", "]", set.size(), set.iterator(), set::descendingIterator);
+            } else if (o instanceof Collection) {
+                Collection<?> collection = (Collection<?>) o;
+                if (top) this.size = collection.size();
+                this.sequence(o, "[", "]", collection.size(), collection.iterator(), null);
+            } else if (o instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) o;
+                if (top) this.size = map.size();
+                this.sequence(o, "{", "}", map.size(), map.entrySet().iterator(), map instanceof NavigableMap
+                        ? () -> ((NavigableMap<?, ?>) map).descendingMap().entrySet().iterator()
+                        : null);
+            } else if (o instanceof BaseStream) {
+                try (BaseStream<?, ?> stream = (BaseStream<?, ?>) o) {
+                    this.sequence(o, "[", "]", -1, stream.iterator(), null);
+                }
+            } else if (o != null && o.getClass().isArray()) {
+                int length = Array.getLength(o);
+                if (top) this.size = length;
+                this.sequence(o, "[", "]", length, new ArrayIterator(o, 0, 1), () -> new ArrayIterator(o, length - 1, -1));
+            } else {
+                this.append(String.valueOf(o));
+            }
+        }
+
+        /**
+         * Check if {@code o} should be left to its own {@code toString()}, see the class documentation.
+         * The size of a stream isn't known so a stream that overrides it always is.
+         */
+        private boolean hasOwnToString(Object o) {
+            long size;
+            if (o instanceof Collection)
+                size = ((Collection<?>) o).size();
+            else if (o instanceof Map)
+                size = ((Map<?, ?>) o).size();
+            else if (o instanceof BaseStream)
+                size = -1;
+            else
+                return false;
+
+            return OWN_TO_STRING.get(o.getClass()) && size <= 2L * this.maxElements;
+        }
+
+        private void element(Object o) {
+            if (o instanceof Map.Entry) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                this.value(entry.getKey(), false);
+                this.append("=");
+                this.value(entry.getValue(), false);
+            } else {
+                this.value(o, false);
+            }
+        }
+
+        /**
+         * Render the first and last elements of a sequence of known size, or the first elements of
+         * one of unknown size ({@code -1}). Without {@code fromEnd} only the first elements of a
+         * sequence of known size are rendered as well.
+         */
+        private void sequence(Object container, String open, String close, long size, Iterator<?> elements, Supplier<Iterator<?>> fromEnd) {
+            this.enclosing.add(container);
+            this.append(open);
+
+            long head = size >= 0 && size <= 2L * this.maxElements ? size : this.maxElements;
+            long rendered = 0;
+            while (rendered < head && !this.exhausted && elements.hasNext()) {
+                if (rendered > 0) this.append(", ");
+                this.element(elements.next());
+                rendered++;
+            }
+
+            if (!this.exhausted && rendered < size && fromEnd != null) {
+                long tail = Math.min(this.maxElements, size - rendered);
+                List<Object> last = new ArrayList<>();
+                Iterator<?> reversed = fromEnd.get();
+                while (last.size() < tail && reversed.hasNext())
+                    last.add(reversed.next());
+                Collections.reverse(last);
+
+                this.append(String.format(", ... %d more ...", size - rendered - last.size()));
+                for (Object element : last) {
+                    this.append(", ");
+                    this.element(element);
+                }
+            } else if (!this.exhausted && rendered < size) {
+                this.append(String.format(", ... %d more", size - rendered));
+            } else if (!this.exhausted && size < 0 && elements.hasNext()) {
+                this.append(", ...");
+            }
+
+            this.append(close);
+            this.enclosing.remove(container);
+        }
+
+        private static Iterator<Object> reverse(ListIterator<?> iterator) {
+            return new Iterator<Object>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasPrevious();
+                }
+
+                @Override
+                public Object next() {
+                    return iterator.previous();
+                }
+            };
+        }
+    }
+
+    private static class ArrayIterator implements Iterator<Object> {
+        private final Object array;
+        private final int step;
+        private int i;
+
+        private ArrayIterator(Object array, int start, int step) {
+            this.array = array;
+            this.i = start;
+            this.step = step;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.i >= 0 && this.i < Array.getLength(this.array);
+        }
+
+        @Override
+        public Object next() {
+            Object next = Array.get(this.array, this.i);
+            this.i += this.step;
+            return next;
+        }
+    }
+}
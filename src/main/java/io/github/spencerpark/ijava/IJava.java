@@ -41,9 +41,20 @@ import java.util.logging.Level;
 public class IJava {
     public static final String COMPILER_OPTS_KEY = "IJAVA_COMPILER_OPTS";
     public static final String TIMEOUT_DURATION_KEY = "IJAVA_TIMEOUT";
+    public static final String EXECUTOR_KEY = "IJAVA_EXECUTOR";
     public static final String CLASSPATH_KEY = "IJAVA_CLASSPATH";
     public static final String STARTUP_SCRIPTS_KEY = "IJAVA_STARTUP_SCRIPTS_PATH";
     public static final String STARTUP_SCRIPT_KEY = "IJAVA_STARTUP_SCRIPT";
+    public static final String EAGER_INIT_KEY = "IJAVA_EAGER_INIT";
+    public static final String OUTPUT_LIMIT_KEY = "IJAVA_OUTPUT_LIMIT";
+    public static final String OUTPUT_RATE_LIMIT_KEY = "IJAVA_OUTPUT_RATE_LIMIT";
+    public static final String RENDER_MAX_ELEMENTS_KEY = "IJAVA_RENDER_MAX_ELEMENTS";
+    public static final String RENDER_MAX_CHARS_KEY = "IJAVA_RENDER_MAX_CHARS";
+    public static final String DISPLAY_UPDATE_RATE_KEY = "IJAVA_DISPLAY_UPDATE_RATE";
+    public static final String STARTUP_SNAPSHOT_DIR_KEY = "IJAVA_STARTUP_SNAPSHOT_DIR";
+    public static final String MAVEN_LOCKFILE_KEY = "IJAVA_MAVEN_LOCKFILE";
+    public static final String MAVEN_UPDATE_POLICY_KEY = "IJAVA_MAVEN_UPDATE_POLICY";
+    public static final String MAVEN_OFFLINE_KEY = "IJAVA_MAVEN_OFFLINE";
 
     public static final String DEFAULT_SHELL_INIT_RESOURCE_PATH = "ijava-jshell-init.jshell";
 
@@ -102,6 +113,7 @@ public class IJava {
         kernel.becomeHandlerForConnection(connection);
 
         connection.connect();
+        kernel.startEagerInit();
         connection.waitUntilClose();
 
         kernel = null;
@@ -25,11 +25,15 @@ package io.github.spencerpark.ijava;
 
 import io.github.spencerpark.ijava.execution.*;
 import io.github.spencerpark.ijava.magics.ClasspathMagics;
+import io.github.spencerpark.ijava.magics.MavenMagics;
 import io.github.spencerpark.ijava.magics.MavenResolver;
+import io.github.spencerpark.ijava.magics.dependencies.UpdatePolicy;
+import io.github.spencerpark.ijava.magics.TimeMagics;
 import io.github.spencerpark.jupyter.kernel.BaseKernel;
 import io.github.spencerpark.jupyter.kernel.LanguageInfo;
 import io.github.spencerpark.jupyter.kernel.ReplacementOptions;
 import io.github.spencerpark.jupyter.kernel.display.DisplayData;
+import io.github.spencerpark.jupyter.kernel.display.Renderer;
 import io.github.spencerpark.jupyter.kernel.magic.registry.Magics;
 import io.github.spencerpark.jupyter.kernel.magic.common.Load;
 import io.github.spencerpark.jupyter.kernel.util.CharPredicate;
@@ -38,9 +42,15 @@ import io.github.spencerpark.jupyter.kernel.util.TextColor;
 import io.github.spencerpark.jupyter.messages.Header;
 import jdk.jshell.*;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
 import java.util.stream.Collectors;
 
 public class JavaKernel extends BaseKernel {
@@ -64,8 +74,19 @@ public class JavaKernel extends BaseKernel {
             .build();
     private static final CharPredicate WS = CharPredicate.anyOf(" \t\n\r");
 
+    private static final int COMPLETION_CACHE_SIZE = 256;
+    private static final int INSPECTION_CACHE_SIZE = 128;
+
+    private final CodeEvaluatorBuilder evaluatorBuilder;
     private final CodeEvaluator evaluator;
-    private final MavenResolver mavenResolver;
+    private final boolean eagerInit;
+    private final MavenMagics mavenMagics;
+    private final Path mavenLockfile;
+    private final UpdatePolicy mavenUpdatePolicy;
+    private final boolean mavenOffline;
+    private final OutputCoalescer output;
+    private final DisplayUpdateThrottle displayUpdates;
+    private final BoundedRenderer boundedRenderer;
 
     private final MagicsSourceTransformer magicsTransformer;
     private final Magics magics;
@@ -76,24 +97,55 @@ public class JavaKernel extends BaseKernel {
 
     private final StringStyler errorStyler;
 
+    private final VersionedCache<Completions> completionCache = new VersionedCache<>(COMPLETION_CACHE_SIZE);
+    private final VersionedCache<Optional<DisplayData>> inspectionCache = new VersionedCache<>(INSPECTION_CACHE_SIZE);
+    // Inspections that were cached before a jar was indexed may be missing its javadoc.
+    private final JavadocIndex javadocIndex = new JavadocIndex(
+            Paths.get(System.getProperty("java.io.tmpdir"), "ijava-javadoc-index"),
+            this.inspectionCache::clear
+    );
+
     public JavaKernel() {
-        this.evaluator = new CodeEvaluatorBuilder()
+        this.evaluatorBuilder = new CodeEvaluatorBuilder()
                 .addClasspathFromString(System.getenv(IJava.CLASSPATH_KEY))
                 .compilerOptsFromString(System.getenv(IJava.COMPILER_OPTS_KEY))
                 .startupScript(IJava.resource(IJava.DEFAULT_SHELL_INIT_RESOURCE_PATH))
                 .startupScriptFiles(System.getenv(IJava.STARTUP_SCRIPTS_KEY))
                 .startupScript(System.getenv(IJava.STARTUP_SCRIPT_KEY))
+                .startupSnapshotDirectoryFromString(System.getenv(IJava.STARTUP_SNAPSHOT_DIR_KEY))
                 .timeoutFromString(System.getenv(IJava.TIMEOUT_DURATION_KEY))
+                .executorFromString(System.getenv(IJava.EXECUTOR_KEY))
+                .unresolvedSymbolHandler(this::awaitPendingDependencies)
                 .sysStdout()
                 .sysStderr()
-                .sysStdin()
-                .build();
-        this.mavenResolver = new MavenResolver(this::addToClasspath);
+                .sysStdin();
+        this.evaluator = this.evaluatorBuilder.build();
+        this.output = new OutputCoalescer();
+        this.output.setCellLimit(OutputCoalescer.parseSize(System.getenv(IJava.OUTPUT_LIMIT_KEY)));
+        this.output.setRateLimit(OutputCoalescer.parseSize(System.getenv(IJava.OUTPUT_RATE_LIMIT_KEY)));
+        this.displayUpdates = new DisplayUpdateThrottle((id, data) -> this.getIO().display.updateDisplay(id, data));
+        this.displayUpdates.setRate(DisplayUpdateThrottle.parseRate(System.getenv(IJava.DISPLAY_UPDATE_RATE_KEY)));
+
+        this.boundedRenderer = new BoundedRenderer();
+        this.boundedRenderer.setMaxElements(BoundedRenderer.parseMaxElements(System.getenv(IJava.RENDER_MAX_ELEMENTS_KEY)));
+        this.boundedRenderer.setMaxChars(BoundedRenderer.parseMaxChars(System.getenv(IJava.RENDER_MAX_CHARS_KEY)));
+        this.boundedRenderer.registerAll(this.getRenderer());
+        this.eagerInit = Boolean.parseBoolean(System.getenv(IJava.EAGER_INIT_KEY));
+
+        // The maven configuration is read now so that mistakes are reported at startup, but the
+        // resolver itself is only created when a notebook first uses one of the maven magics.
+        String mavenLockfile = System.getenv(IJava.MAVEN_LOCKFILE_KEY);
+        this.mavenLockfile = mavenLockfile == null || mavenLockfile.trim().isEmpty() ? null : Paths.get(mavenLockfile);
+        String mavenUpdatePolicy = System.getenv(IJava.MAVEN_UPDATE_POLICY_KEY);
+        this.mavenUpdatePolicy = mavenUpdatePolicy == null || mavenUpdatePolicy.trim().isEmpty() ? null : UpdatePolicy.parse(mavenUpdatePolicy);
+        this.mavenOffline = Boolean.parseBoolean(System.getenv(IJava.MAVEN_OFFLINE_KEY));
+        this.mavenMagics = new MavenMagics(this::createMavenResolver);
 
         this.magicsTransformer = new MagicsSourceTransformer();
         this.magics = new Magics();
-        this.magics.registerMagics(this.mavenResolver);
+        this.magics.registerMagics(this.mavenMagics);
         this.magics.registerMagics(new ClasspathMagics(this::addToClasspath));
+        this.magics.registerMagics(new TimeMagics(this));
         this.magics.registerMagics(new Load(List.of(".jsh", ".jshell", ".java", ".ijava"), this::eval));
 
         this.languageInfo = new LanguageInfo.Builder("Java")
@@ -125,12 +177,55 @@ public class JavaKernel extends BaseKernel {
                 .build();
     }
 
+    /**
+     * Start initializing the evaluator in the background if the kernel was started with
+     * {@link IJava#EAGER_INIT_KEY} enabled. This is called once the kernel is connected so that
+     * the startup scripts are likely done by the time the first cell is executed.
+     */
+    public void startEagerInit() {
+        if (this.eagerInit)
+            this.evaluator.warmUpInBackground();
+    }
+
     public void addToClasspath(String path) {
-        this.evaluator.getShell().addToClasspath(path);
+        this.addToClasspath(Collections.singletonList(path));
+    }
+
+    /**
+     * Add the entries to the classpath in a single update, skipping any that are already on it.
+     * A warning is printed for each package that ends up split across more than one jar as it
+     * likely means that two versions of the same library are on the classpath.
+     *
+     * @param paths the paths to jars or directories to add.
+     */
+    public void addToClasspath(Collection<String> paths) {
+        ClasspathManager.Update update = this.evaluator.addToClasspath(paths);
+        update.getSplitPackages().forEach((pkg, jars) ->
+                System.err.printf("Warning: package '%s' is split across %s%n", pkg, String.join(", ", jars)));
     }
 
+    public CodeEvaluator getEvaluator() {
+        return this.evaluator;
+    }
+
+    private MavenResolver createMavenResolver() {
+        MavenResolver resolver = new MavenResolver(this::addToClasspath, this.mavenLockfile);
+        if (this.mavenUpdatePolicy != null)
+            resolver.setDefaultUpdatePolicy(this.mavenUpdatePolicy);
+        resolver.setOffline(this.mavenOffline);
+        resolver.setProgressDisplay(this.getIO().display);
+        resolver.setSourceJarConsumer(jar -> this.javadocIndex.addSourceJar(jar.toPath()));
+        return resolver;
+    }
+
+    /**
+     * Get the resolver backing the maven magics. It is created by the first call to this method
+     * or the first use of a maven magic, whichever comes first.
+     *
+     * @return the maven resolver.
+     */
     public MavenResolver getMavenResolver() {
-        return this.mavenResolver;
+        return this.mavenMagics.getResolver();
     }
 
     public Magics getMagics() {
@@ -271,23 +366,72 @@ public class JavaKernel extends BaseKernel {
     }
 
     public Object evalRaw(String expr) throws Exception {
+        // Dependencies resolved in the background are added between cells.
+        this.mavenMagics.applyResolvedDependencies();
+
         expr = this.magicsTransformer.transformMagics(expr);
 
         return this.evaluator.eval(expr);
     }
 
+    private boolean awaitPendingDependencies() {
+        // Code that can't compile may be waiting on dependencies that are still being resolved.
+        return this.mavenMagics.awaitPendingResolutions();
+    }
+
     @Override
     public DisplayData eval(String expr) throws Exception {
-        Object result = this.evalRaw(expr);
+        Object result;
+        OutputCoalescer.Attachment attachment = this.output.attachToSystemStreams();
+        try {
+            result = this.evalRaw(expr);
+        } finally {
+            attachment.close();
+            // Make sure that the last update of every display is shown.
+            this.displayUpdates.flush();
+        }
 
         if (result != null)
             return result instanceof DisplayData
                     ? (DisplayData) result
-                    : this.getRenderer().render(result);
+                    : this.render(result);
 
         return null;
     }
 
+    @Override
+    public void display(DisplayData data) {
+        // Anything printed before the display should also appear before it.
+        this.output.flush();
+        super.display(data);
+    }
+
+    public BoundedRenderer getBoundedRenderer() {
+        return this.boundedRenderer;
+    }
+
+    /**
+     * Render with the kernel's {@link #getRenderer() renderer}, which may need to be prepared for
+     * some objects first. See {@link BoundedRenderer#prepare(Renderer, Object)}.
+     */
+    public DisplayData render(Object o) {
+        this.boundedRenderer.prepare(this.getRenderer(), o);
+        return this.getRenderer().render(o);
+    }
+
+    public DisplayData renderAs(Object o, String... as) {
+        this.boundedRenderer.prepare(this.getRenderer(), o);
+        return this.getRenderer().renderAs(o, as);
+    }
+
+    /**
+     * Update the display with the id, at most as often as the {@link IJava#DISPLAY_UPDATE_RATE_KEY}
+     * allows. See {@link DisplayUpdateThrottle}.
+     */
+    public void updateDisplay(String id, DisplayData data) {
+        this.displayUpdates.update(id, data);
+    }
+
     @Override
     public DisplayData inspect(String code, int at, boolean extraDetail) {
         // Move the code position to the end of the identifier to make the inspection work at any
@@ -300,46 +444,71 @@ public class JavaKernel extends BaseKernel {
         while (parenIdx + 1 < code.length() && WS.test(code.charAt(parenIdx + 1))) parenIdx++;
         if (parenIdx + 1 < code.length() && code.charAt(parenIdx + 1) == '(') at = parenIdx + 1;
 
-        List<SourceCodeAnalysis.Documentation> documentations = this.evaluator.getShell().sourceCodeAnalysis().documentation(code, at + 1, true);
+        CodeEvaluator evaluator = this.evaluator;
+        JShell shell = evaluator.getShell();
+        long version = evaluator.getStateVersion();
+
+        // The documentation only depends on the code up to the end of the identifier. Hovering
+        // over the same thing again is common and looking up the javadoc is slow.
+        String key = code.substring(0, Math.min(at + 1, code.length()));
+        Optional<DisplayData> cached = this.inspectionCache.get(key, version);
+        if (cached == null) {
+            cached = Optional.ofNullable(this.computeInspection(shell, code, at));
+            this.inspectionCache.put(key, version, cached);
+        }
+
+        return cached.orElse(null);
+    }
+
+    private DisplayData computeInspection(JShell shell, String code, int at) {
+        List<SourceCodeAnalysis.Documentation> documentations = shell.sourceCodeAnalysis().documentation(code, at + 1, true);
         if (documentations == null || documentations.isEmpty()) {
             return null;
         }
 
-        DisplayData fmtDocs = new DisplayData(
-                documentations.stream()
-                        .map(doc -> {
-                            String formatted = doc.signature();
-
-                            String javadoc = doc.javadoc();
-                            if (javadoc != null) formatted += '\n' + javadoc;
+        StringJoiner text = new StringJoiner("\n\n");
+        StringJoiner html = new StringJoiner("<hr/>");
+        for (SourceCodeAnalysis.Documentation doc : documentations) {
+            String formatted = doc.signature();
+            String formattedHtml = "<code>" + JavadocRenderer.escape(doc.signature()) + "</code>";
+
+            String javadoc = doc.javadoc();
+            if (javadoc != null) {
+                formatted += '\n' + javadoc;
+                formattedHtml += JavadocRenderer.render(javadoc);
+            } else {
+                // The shell only finds the javadoc of the jdk, the index has the javadoc of the dependencies.
+                JavadocIndex.Doc indexed = this.javadocIndex.lookup(doc.signature());
+                if (indexed != null) {
+                    formatted += '\n' + indexed.getJavadoc();
+                    formattedHtml += indexed.getHtml();
+                }
+            }
 
-                            return formatted;
-                        }).collect(Collectors.joining("\n\n")
-                )
-        );
+            text.add(formatted);
+            html.add(formattedHtml);
+        }
 
-        fmtDocs.putHTML(
-                documentations.stream()
-                        .map(doc -> {
-                            String formatted = doc.signature();
+        DisplayData fmtDocs = new DisplayData(text.toString());
+        fmtDocs.putHTML(html.toString());
 
-                            // TODO consider compiling the javadoc to html for pretty printing
-                            String javadoc = doc.javadoc();
-                            if (javadoc != null) formatted += "<br/>" + javadoc;
+        return fmtDocs;
+    }
 
-                            return formatted;
-                        }).collect(Collectors.joining("<br/><br/>")
-                )
-        );
+    private static class Completions {
+        private final int anchor;
+        private final List<String> options;
 
-        return fmtDocs;
+        private Completions(int anchor, List<String> options) {
+            this.anchor = anchor;
+            this.options = options;
+        }
     }
 
-    @Override
-    public ReplacementOptions complete(String code, int at) {
+    private static Completions computeCompletions(JShell shell, String code, int at) {
         int[] replaceStart = new int[1]; // As of now this is always the same as the cursor...
-        List<SourceCodeAnalysis.Suggestion> suggestions = this.evaluator.getShell().sourceCodeAnalysis().completionSuggestions(code, at, replaceStart);
-        if (suggestions == null || suggestions.isEmpty()) return null;
+        List<SourceCodeAnalysis.Suggestion> suggestions = shell.sourceCodeAnalysis().completionSuggestions(code, at, replaceStart);
+        if (suggestions == null || suggestions.isEmpty()) return new Completions(at, Collections.emptyList());
 
         List<String> options = suggestions.stream()
                 .sorted((s1, s2) ->
@@ -351,7 +520,46 @@ public class JavaKernel extends BaseKernel {
                 .distinct()
                 .collect(Collectors.toList());
 
-        return new ReplacementOptions(options, replaceStart[0], at);
+        return new Completions(replaceStart[0], options);
+    }
+
+    private Completions lookupCompletions(String code, int at, long version) {
+        // Suggestions only depend on the code before the cursor.
+        Completions exact = this.completionCache.get(code.substring(0, at), version);
+        if (exact != null) return exact;
+
+        // Typing more of an identifier only narrows the suggestions for the part that was
+        // already typed. Reuse those instead of asking the shell again.
+        int wordStart = at;
+        while (wordStart > 0 && IDENTIFIER_CHAR.test(code.charAt(wordStart - 1))) wordStart--;
+
+        String word = code.substring(wordStart, at);
+        for (int end = at - 1; end >= wordStart; end--) {
+            Completions partial = this.completionCache.get(code.substring(0, end), version);
+            if (partial != null && partial.anchor == wordStart) {
+                return new Completions(wordStart, partial.options.stream()
+                        .filter(o -> o.startsWith(word))
+                        .collect(Collectors.toList()));
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public ReplacementOptions complete(String code, int at) {
+        CodeEvaluator evaluator = this.evaluator;
+        JShell shell = evaluator.getShell();
+        long version = evaluator.getStateVersion();
+
+        Completions completions = this.lookupCompletions(code, at, version);
+        if (completions == null)
+            completions = computeCompletions(shell, code, at);
+        this.completionCache.put(code.substring(0, at), version, completions);
+
+        if (completions.options.isEmpty()) return null;
+
+        return new ReplacementOptions(completions.options, completions.anchor, at);
     }
 
     @Override
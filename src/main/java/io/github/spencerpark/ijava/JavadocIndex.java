@@ -0,0 +1,508 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava;
+
+import com.sun.source.tree.BlockTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.DocTrees;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TreePathScanner;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The javadoc of the dependencies, read from their source jars. The shell only finds the javadoc
+ * of the JDK, so this fills in the documentation that it doesn't have.
+ * <p>
+ * Each source jar is parsed once, in the background, into an index file that is saved in a
+ * directory shared by all kernels and memory mapped. An index is a hash table from a key derived
+ * from the signature of a type or member to its raw javadoc and the javadoc already rendered to
+ * html, so a lookup is a few reads from the mapped file regardless of the size of the jar.
+ * <p>
+ * The key of a type is its canonical name, of a field is {@code Type.field}, of a method is
+ * {@code Type.method(Param,...)} and of a constructor is {@code Type(Param,...)}, where
+ * {@code Type} is the simple name of the declaring type and the parameters are the simple
+ * names of their erased types. These are the parts of a signature that are given the same way
+ * by the source and by the shell, regardless of imports.
+ */
+public class JavadocIndex {
+    private static final int MAGIC = 0x494a4458; // "IJDX"
+    private static final int FORMAT_VERSION = 1;
+
+    // magic, version, jar size, jar last modified, slot count
+    private static final int SLOTS_OFFSET = 24;
+    private static final int HEADER_SIZE = 28;
+    // key hash, entry offset
+    private static final int SLOT_SIZE = 8;
+
+    private static final String INDEX_EXTENSION = ".idx";
+
+    /**
+     * The most source files to parse with the same compiler task. The parsed trees of a task
+     * are kept until it is done with so big jars are parsed a piece at a time.
+     */
+    private static final int PARSE_BATCH_SIZE = 128;
+
+    /**
+     * The documentation of a type or member.
+     */
+    public static class Doc {
+        private final String javadoc;
+        private final String html;
+
+        private Doc(String javadoc, String html) {
+            this.javadoc = javadoc;
+            this.html = html;
+        }
+
+        /**
+         * @return the raw text of the javadoc comment.
+         */
+        public String getJavadoc() {
+            return this.javadoc;
+        }
+
+        /**
+         * @return the javadoc rendered by {@link JavadocRenderer}.
+         */
+        public String getHtml() {
+            return this.html;
+        }
+    }
+
+    private final Path directory;
+    private final Runnable onIndexed;
+    private final Set<Path> sourceJars = ConcurrentHashMap.newKeySet();
+    private final List<ByteBuffer> indices = new CopyOnWriteArrayList<>();
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "IJava-javadoc-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param directory the directory to save the index files in.
+     * @param onIndexed called after a source jar is indexed, from the indexing thread, as lookups
+     *                  that didn't find anything before may now succeed.
+     */
+    public JavadocIndex(Path directory, Runnable onIndexed) {
+        this.directory = directory;
+        this.onIndexed = onIndexed;
+    }
+
+    /**
+     * Index the javadoc in a source jar, in the background. The index is reused if it was already
+     * built for the same jar, by this or another kernel.
+     *
+     * @param jar the source jar.
+     */
+    public void addSourceJar(Path jar) {
+        if (!this.sourceJars.add(jar.toAbsolutePath()))
+            return;
+
+        this.indexer.submit(() -> {
+            try {
+                this.indices.add(this.load(jar.toAbsolutePath()));
+            } catch (IOException | RuntimeException e) {
+                // The members from this jar are shown without their javadoc, as they were before.
+                return;
+            }
+            this.onIndexed.run();
+        });
+    }
+
+    /**
+     * Find the documentation of a type or member described by a signature given by
+     * {@link jdk.jshell.SourceCodeAnalysis.Documentation#signature()}.
+     *
+     * @param signature the signature of the type or member.
+     *
+     * @return the documentation or {@code null} if none of the indexed jars have any.
+     */
+    public Doc lookup(String signature) {
+        if (this.indices.isEmpty())
+            return null;
+
+        String s = JavadocIndex.stripTypeArguments(signature);
+        int open = s.indexOf('(');
+
+        if (open < 0) {
+            // A type which is given by its canonical name, or a field which may have its type after a ':'.
+            int colon = s.indexOf(':');
+            String name = JavadocIndex.lastWord(colon < 0 ? s : s.substring(0, colon));
+            Doc type = this.find(name);
+            return type != null ? type : this.find(JavadocIndex.lastSegments(name, 2));
+        }
+
+        int close = s.indexOf(')', open);
+        String head = s.substring(0, open).trim();
+        // Everything but a constructor has a return type before the name.
+        boolean constructor = head.indexOf(' ') < 0;
+
+        StringJoiner params = new StringJoiner(",", "(", ")");
+        for (String param : s.substring(open + 1, close < 0 ? s.length() : close).split(",")) {
+            param = param.trim();
+            if (param.isEmpty())
+                continue;
+
+            int nameStart = param.lastIndexOf(' ');
+            params.add(JavadocIndex.simpleTypeName(nameStart < 0 ? param : param.substring(0, nameStart)));
+        }
+
+        return this.find(JavadocIndex.lastSegments(JavadocIndex.lastWord(head), constructor ? 1 : 2) + params);
+    }
+
+    private Doc find(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = key.hashCode();
+
+        for (ByteBuffer index : this.indices) {
+            Doc doc = JavadocIndex.find(index, keyBytes, hash);
+            if (doc != null)
+                return doc;
+        }
+
+        return null;
+    }
+
+    private static Doc find(ByteBuffer index, byte[] key, int hash) {
+        int slots = index.getInt(SLOTS_OFFSET);
+
+        for (int i = 0; i < slots; i++) {
+            int slot = HEADER_SIZE + ((hash + i) & (slots - 1)) * SLOT_SIZE;
+            int offset = index.getInt(slot + 4);
+            if (offset == 0)
+                return null;
+            if (index.getInt(slot) != hash || !JavadocIndex.keyEquals(index, offset, key))
+                continue;
+
+            int javadocOffset = offset + 4 + key.length;
+            String javadoc = JavadocIndex.readString(index, javadocOffset);
+            String html = JavadocIndex.readString(index, javadocOffset + 4 + index.getInt(javadocOffset));
+            return new Doc(javadoc, html);
+        }
+
+        return null;
+    }
+
+    private static boolean keyEquals(ByteBuffer index, int offset, byte[] key) {
+        if (index.getInt(offset) != key.length)
+            return false;
+
+        for (int i = 0; i < key.length; i++)
+            if (index.get(offset + 4 + i) != key[i])
+                return false;
+
+        return true;
+    }
+
+    private static String readString(ByteBuffer index, int offset) {
+        byte[] bytes = new byte[index.getInt(offset)];
+        // The buffer is shared by the lookups so its position isn't touched.
+        ByteBuffer view = index.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer load(Path jar) throws IOException {
+        long size = Files.size(jar);
+        long modified = Files.getLastModifiedTime(jar).toMillis();
+        Path file = this.directory.resolve(JavadocIndex.sha256(jar.toString()) + INDEX_EXTENSION);
+
+        ByteBuffer index = JavadocIndex.map(file);
+        if (index != null && index.getInt(0) == MAGIC && index.getInt(4) == FORMAT_VERSION
+                && index.getLong(8) == size && index.getLong(16) == modified)
+            return index;
+
+        Files.createDirectories(this.directory);
+        JavadocIndex.write(file, size, modified, JavadocIndex.collect(jar));
+        return JavadocIndex.map(file);
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void write(Path file, long size, long modified, Map<String, String> docs) throws IOException {
+        int slots = 16;
+        while (slots < docs.size() * 2)
+            slots <<= 1;
+
+        int dataStart = HEADER_SIZE + slots * SLOT_SIZE;
+        int[] table = new int[slots * 2];
+        ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(dataBytes);
+
+        for (Map.Entry<String, String> doc : docs.entrySet()) {
+            long offset = (long) dataStart + data.size();
+            if (offset > Integer.MAX_VALUE)
+                throw new IOException("Too much javadoc to index.");
+
+            int hash = doc.getKey().hashCode();
+            int slot = hash & (slots - 1);
+            while (table[slot * 2 + 1] != 0)
+                slot = (slot + 1) & (slots - 1);
+            table[slot * 2] = hash;
+            table[slot * 2 + 1] = (int) offset;
+
+            JavadocIndex.writeString(data, doc.getKey());
+            JavadocIndex.writeString(data, doc.getValue());
+            JavadocIndex.writeString(data, JavadocRenderer.render(doc.getValue()));
+        }
+
+        Path staging = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(staging)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(size);
+                out.writeLong(modified);
+                out.writeInt(slots);
+                for (int entry : table)
+                    out.writeInt(entry);
+                dataBytes.writeTo(out);
+            }
+
+            Files.move(staging, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Parse the sources in the jar, without compiling them, and collect their javadoc comments.
+     *
+     * @return the javadoc of the types and members in the jar by their key.
+     */
+    private static Map<String, String> collect(Path jar) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IOException("No java compiler is available.");
+
+        Map<String, String> docs = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            List<JavaFileObject> batch = new ArrayList<>(PARSE_BATCH_SIZE);
+
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".java") || name.endsWith("-info.java"))
+                    continue;
+
+                String source;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+
+                batch.add(new SimpleJavaFileObject(URI.create("string:///" + name.replace(' ', '_')), JavaFileObject.Kind.SOURCE) {
+                    @Override
+                    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                        return source;
+                    }
+                });
+
+                if (batch.size() == PARSE_BATCH_SIZE) {
+                    JavadocIndex.parse(compiler, batch, docs);
+                    batch.clear();
+                }
+            }
+
+            JavadocIndex.parse(compiler, batch, docs);
+        }
+
+        return docs;
+    }
+
+    private static void parse(JavaCompiler compiler, List<JavaFileObject> files, Map<String, String> docs) throws IOException {
+        if (files.isEmpty())
+            return;
+
+        // Sources that don't parse still have their javadoc collected from what did.
+        JavacTask task = (JavacTask) compiler.getTask(null, null, d -> { }, Collections.singletonList("-proc:none"), null, files);
+        // Getting the doc trees before parsing keeps the doc comments.
+        DocTrees trees = DocTrees.instance(task);
+        for (CompilationUnitTree unit : task.parse())
+            new DocCollector(trees, docs).scan(unit, null);
+    }
+
+    private static class DocCollector extends TreePathScanner<Void, Void> {
+        private final DocTrees trees;
+        private final Map<String, String> docs;
+        // The canonical names of the types enclosing the current tree, innermost first.
+        private final Deque<String> types = new ArrayDeque<>();
+        private String packagePrefix = "";
+
+        private DocCollector(DocTrees trees, Map<String, String> docs) {
+            this.trees = trees;
+            this.docs = docs;
+        }
+
+        private void collect(String key) {
+            String javadoc = this.trees.getDocComment(this.getCurrentPath());
+            if (javadoc != null && !javadoc.trim().isEmpty())
+                this.docs.putIfAbsent(key, javadoc);
+        }
+
+        private String owner() {
+            return JavadocIndex.lastSegments(this.types.peek(), 1);
+        }
+
+        @Override
+        public Void visitCompilationUnit(CompilationUnitTree node, Void unused) {
+            this.packagePrefix = node.getPackageName() == null ? "" : node.getPackageName() + ".";
+            return super.visitCompilationUnit(node, unused);
+        }
+
+        @Override
+        public Void visitClass(ClassTree node, Void unused) {
+            // Anonymous classes have no documentation to look up.
+            if (node.getSimpleName().length() == 0)
+                return null;
+
+            String name = (this.types.isEmpty() ? this.packagePrefix : this.types.peek() + ".") + node.getSimpleName();
+            this.collect(name);
+
+            this.types.push(name);
+            try {
+                return super.visitClass(node, unused);
+            } finally {
+                this.types.pop();
+            }
+        }
+
+        @Override
+        public Void visitMethod(MethodTree node, Void unused) {
+            StringJoiner params = new StringJoiner(",", "(", ")");
+            for (VariableTree param : node.getParameters())
+                params.add(JavadocIndex.simpleTypeName(param.getType().toString()));
+
+            this.collect((node.getName().contentEquals("<init>") ? this.owner() : this.owner() + "." + node.getName()) + params);
+            // Nothing in the body can be looked up.
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(VariableTree node, Void unused) {
+            // Only fields are visited as method bodies and initializer blocks are skipped.
+            this.collect(this.owner() + "." + node.getName());
+            return null;
+        }
+
+        @Override
+        public Void visitBlock(BlockTree node, Void unused) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the simple name of the erased {@code type}, with varargs as an array.
+     */
+    private static String simpleTypeName(String type) {
+        String erased = JavadocIndex.stripTypeArguments(type)
+                .replaceAll("@[\\w.$]+(\\([^)]*\\))?", "")
+                .replace("...", "[]")
+                .replaceAll("\\s+", "");
+        return erased.substring(erased.lastIndexOf('.') + 1);
+    }
+
+    private static String stripTypeArguments(String s) {
+        StringBuilder stripped = new StringBuilder(s.length());
+        int depth = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '<') depth++;
+            else if (c == '>') depth = Math.max(0, depth - 1);
+            else if (depth == 0) stripped.append(c);
+        }
+        return stripped.toString();
+    }
+
+    private static String lastWord(String s) {
+        s = s.trim();
+        return s.substring(s.lastIndexOf(' ') + 1);
+    }
+
+    /**
+     * @return the last {@code n} dot separated segments of the {@code name}.
+     */
+    private static String lastSegments(String name, int n) {
+        int start = name.length();
+        for (int i = 0; i < n && start > 0; i++)
+            start = name.lastIndexOf('.', start - 1);
+        return name.substring(start + 1);
+    }
+
+    private static String sha256(String s) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM.", e);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(s.getBytes(StandardCharsets.UTF_8)))
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+}
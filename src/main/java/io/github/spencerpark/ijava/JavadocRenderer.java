@@ -0,0 +1,243 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders the raw text of a javadoc comment, as given by the shell, to html. The description is
+ * already html and is kept as is other than rendering the inline tags. Block tags are grouped into
+ * sections like the ones in the pages generated by the javadoc tool.
+ */
+public class JavadocRenderer {
+    private static final Pattern BLOCK_TAG = Pattern.compile("^\\s*@(?<name>[a-zA-Z]+)\\s?", Pattern.MULTILINE);
+    private static final Pattern FIRST_WORD = Pattern.compile("^\\s*(?<word>\\S+)\\s*(?<rest>.*)$", Pattern.DOTALL);
+
+    private static final Map<String, String> SECTION_TITLES = new LinkedHashMap<>();
+
+    static {
+        SECTION_TITLES.put("deprecated", "Deprecated.");
+        SECTION_TITLES.put("apiNote", "API Note:");
+        SECTION_TITLES.put("implSpec", "Implementation Requirements:");
+        SECTION_TITLES.put("implNote", "Implementation Note:");
+        SECTION_TITLES.put("param", "Parameters:");
+        SECTION_TITLES.put("return", "Returns:");
+        SECTION_TITLES.put("throws", "Throws:");
+        SECTION_TITLES.put("exception", "Throws:");
+        SECTION_TITLES.put("since", "Since:");
+        SECTION_TITLES.put("see", "See Also:");
+        SECTION_TITLES.put("author", "Author:");
+        SECTION_TITLES.put("version", "Version:");
+    }
+
+    public static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '&': escaped.append("&amp;"); break;
+                case '"': escaped.append("&quot;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String linkLabel(String reference) {
+        reference = reference.trim();
+
+        // The parameter list of a method reference may contain spaces, the label starts after it.
+        int end = 0;
+        int depth = 0;
+        while (end < reference.length() && (depth > 0 || !Character.isWhitespace(reference.charAt(end)))) {
+            char c = reference.charAt(end++);
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+        }
+
+        String label = reference.substring(end).trim();
+        if (!label.isEmpty()) return label;
+
+        // Show a member reference the way it would be written in code.
+        String target = reference.substring(0, end);
+        if (target.startsWith("#")) return target.substring(1);
+        return target.replace('#', '.');
+    }
+
+    private static String renderInlineTag(String name, String content) {
+        switch (name) {
+            case "code":
+                return "<code>" + escape(content) + "</code>";
+            case "literal":
+                return escape(content);
+            case "link":
+                return "<code>" + escape(linkLabel(content)) + "</code>";
+            case "linkplain":
+                return escape(linkLabel(content));
+            case "value":
+                return "<code>" + escape(content.trim()) + "</code>";
+            case "index":
+                Matcher m = FIRST_WORD.matcher(content);
+                return m.matches() ? m.group("word") : content;
+            default:
+                // Things like {@inheritDoc} and {@docRoot} can't be resolved here.
+                return content;
+        }
+    }
+
+    /**
+     * Render the inline tags (ex: <code>{&#64;code ...}</code> and <code>{&#64;link ...}</code>) in
+     * the html text.
+     *
+     * @param text html text that may contain inline tags.
+     *
+     * @return the html with the inline tags rendered.
+     */
+    public static String renderInlineTags(String text) {
+        StringBuilder rendered = new StringBuilder(text.length());
+
+        int i = 0;
+        while (i < text.length()) {
+            int start = text.indexOf("{@", i);
+            if (start < 0) break;
+
+            // Find the matching closing brace, tag content may contain balanced braces.
+            int depth = 0;
+            int end = -1;
+            for (int j = start; j < text.length() && end < 0; j++) {
+                char c = text.charAt(j);
+                if (c == '{') depth++;
+                else if (c == '}' && --depth == 0) end = j;
+            }
+            if (end < 0) break;
+
+            int nameEnd = start + 2;
+            while (nameEnd < end && Character.isLetter(text.charAt(nameEnd))) nameEnd++;
+
+            String name = text.substring(start + 2, nameEnd);
+            String content = text.substring(nameEnd, end);
+            if (content.startsWith(" ")) content = content.substring(1);
+
+            rendered.append(text, i, start);
+            rendered.append(renderInlineTag(name, content));
+            i = end + 1;
+        }
+
+        rendered.append(text, i, text.length());
+        return rendered.toString();
+    }
+
+    private static String renderBlockTag(String name, String content) {
+        switch (name) {
+            case "param":
+            case "throws":
+            case "exception":
+                Matcher m = FIRST_WORD.matcher(content);
+                if (m.matches()) {
+                    String rest = m.group("rest").trim();
+                    return "<code>" + escape(m.group("word")) + "</code>"
+                            + (rest.isEmpty() ? "" : " - " + renderInlineTags(rest));
+                }
+                return renderInlineTags(content);
+            case "see":
+                String see = content.trim();
+                // A reference rather than a quoted string or html link.
+                if (!see.startsWith("\"") && !see.startsWith("<"))
+                    return "<code>" + escape(linkLabel(see)) + "</code>";
+                return renderInlineTags(see);
+            default:
+                return renderInlineTags(content.trim());
+        }
+    }
+
+    /**
+     * Render a javadoc comment to html.
+     *
+     * @param javadoc the raw text of the comment without the leading {@code *}s.
+     *
+     * @return the rendered html.
+     */
+    public static String render(String javadoc) {
+        // Find the block tags, ignoring what looks like one inside an inline tag such as an
+        // annotation in a {@code ...} example.
+        List<int[]> tagBounds = new ArrayList<>();
+        List<String> tagNames = new ArrayList<>();
+        Matcher m = BLOCK_TAG.matcher(javadoc);
+        int depth = 0;
+        int scanned = 0;
+        while (m.find()) {
+            for (; scanned < m.start(); scanned++) {
+                char c = javadoc.charAt(scanned);
+                if (c == '{') depth++;
+                else if (c == '}' && depth > 0) depth--;
+            }
+            if (depth == 0) {
+                tagBounds.add(new int[]{ m.start(), m.end() });
+                tagNames.add(m.group("name"));
+            }
+        }
+
+        int descriptionEnd = tagBounds.isEmpty() ? javadoc.length() : tagBounds.get(0)[0];
+        String description = javadoc.substring(0, descriptionEnd).trim();
+
+        // Group the block tags by section, keeping the javadoc ordering of the sections.
+        Map<String, List<String>> sections = new LinkedHashMap<>();
+        SECTION_TITLES.values().forEach(title -> sections.put(title, new ArrayList<>()));
+
+        for (int i = 0; i < tagBounds.size(); i++) {
+            String name = tagNames.get(i);
+            int contentEnd = i + 1 < tagBounds.size() ? tagBounds.get(i + 1)[0] : javadoc.length();
+            String content = javadoc.substring(tagBounds.get(i)[1], contentEnd);
+
+            String title = SECTION_TITLES.getOrDefault(name, Character.toUpperCase(name.charAt(0)) + name.substring(1) + ":");
+            sections.computeIfAbsent(title, k -> new ArrayList<>()).add(renderBlockTag(name, content));
+        }
+
+        StringBuilder html = new StringBuilder();
+        html.append("<div>").append(renderInlineTags(description)).append("</div>");
+
+        StringBuilder tags = new StringBuilder();
+        sections.forEach((title, entries) -> {
+            if (entries.isEmpty()) return;
+            tags.append("<dt><b>").append(title).append("</b></dt>");
+            // Things like @since are shown inline, the rest one entry per line.
+            if (title.equals(SECTION_TITLES.get("see")) || title.equals(SECTION_TITLES.get("since")))
+                tags.append("<dd>").append(String.join(", ", entries)).append("</dd>");
+            else
+                entries.forEach(entry -> tags.append("<dd>").append(entry).append("</dd>"));
+        });
+
+        if (tags.length() > 0)
+            html.append("<dl>").append(tags).append("</dl>");
+
+        return html.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava;
+
+import io.github.spencerpark.jupyter.channels.JupyterConnection;
+import io.github.spencerpark.jupyter.channels.JupyterSocket;
+import io.github.spencerpark.jupyter.kernel.KernelConnectionProperties;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * A scripted kernel session used to train a class data sharing (CDS) archive. The JVM records
+ * the classes that are loaded while running it and the archive is built from that list, so the
+ * session should do what a kernel does from when it is started until the user's first few cells
+ * have run. See the {@code generateCdsArchive} task in {@code build.gradle}.
+ * <p>
+ * The session is not connected to a frontend, the sockets are only bound and closed again.
+ */
+public class StartupTraining {
+    private static final String[] CELLS = {
+            "import java.util.*;\nimport java.util.stream.*;",
+            "int x = 10;\nString greeting = \"Hello \" + x;",
+            "List<Integer> values = IntStream.range(0, x).boxed().collect(Collectors.toList());\nvalues",
+            "Map<String, Integer> counts = new HashMap<>();\nfor (String s : greeting.split(\"\")) counts.merge(s, 1, Integer::sum);\ncounts",
+            "class Point {\n  final int x, y;\n  Point(int x, int y) { this.x = x; this.y = y; }\n  public String toString() { return String.format(\"(%d, %d)\", x, y); }\n}",
+            "double norm(Point p) { return Math.sqrt(p.x * p.x + p.y * p.y); }",
+            "norm(new Point(3, 4))",
+            "System.out.println(greeting);\nSystem.err.println(\"err\");",
+            "%%time\nvalues.stream().mapToInt(Integer::intValue).sum()",
+            "Object o = null;\no.toString();",
+            "this is not java",
+    };
+
+    private static final String[] COMPLETIONS = { "greeting.sub", "Coll", "System.out.pr" };
+
+    public static void main(String[] args) throws Exception {
+        JupyterSocket.JUPYTER_LOGGER.setLevel(Level.WARNING);
+
+        String connectionJson = String.format("{"
+                        + "\"shell_port\": %d, \"iopub_port\": %d, \"stdin_port\": %d, \"control_port\": %d, \"hb_port\": %d, "
+                        + "\"ip\": \"127.0.0.1\", \"transport\": \"tcp\", \"signature_scheme\": \"hmac-sha256\", \"key\": \"%s\""
+                        + "}",
+                freePort(), freePort(), freePort(), freePort(), freePort(), UUID.randomUUID());
+        JupyterConnection connection = new JupyterConnection(KernelConnectionProperties.parse(connectionJson));
+
+        JavaKernel kernel = new JavaKernel();
+        kernel.becomeHandlerForConnection(connection);
+        connection.connect();
+
+        kernel.getLanguageInfo();
+        kernel.getBanner();
+
+        for (String cell : CELLS) {
+            try {
+                kernel.eval(cell);
+            } catch (Exception e) {
+                kernel.formatError(e);
+            }
+        }
+
+        for (String code : COMPLETIONS) {
+            kernel.complete(code, code.length());
+            kernel.inspect(code, code.length(), false);
+            kernel.isComplete(code);
+        }
+
+        kernel.onShutdown(false);
+        connection.close();
+
+        System.exit(0);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
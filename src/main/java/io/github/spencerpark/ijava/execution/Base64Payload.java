@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Base64 encodes binary display payloads, like images, for the JSON string in a display message.
+ * The bytes are read and encoded a chunk at a time straight into the output buffer, rather than
+ * first collecting all of them in an array and then encoding that into another one. When the
+ * length is known, as for a buffer or a file, the output is sized for the encoded result up front.
+ * A stream's output starts at the encoded size of {@code max(CHUNK_SIZE, available())} bytes and
+ * doubles whenever it fills. A memory mapped file is never copied onto the heap at all.
+ */
+public final class Base64Payload {
+    // A multiple of 3 so that no chunk but the last needs padding.
+    private static final int CHUNK_SIZE = 3 * 16 * 1024;
+    private static final int MAX_ENCODED_LENGTH = Integer.MAX_VALUE - 8;
+
+    private Base64Payload() { }
+
+    /**
+     * @param size the number of bytes to encode.
+     *
+     * @return the length of {@code size} bytes when base64 encoded.
+     *
+     * @throws IllegalArgumentException if the result wouldn't fit in a {@code String}.
+     */
+    public static int encodedLength(long size) {
+        long length = 4 * ((size + 2) / 3);
+        if (length > MAX_ENCODED_LENGTH)
+            throw new IllegalArgumentException(String.format("A payload of %d bytes is too large to display.", size));
+        return (int) length;
+    }
+
+    /**
+     * Encode the remaining bytes in {@code data} without changing its position.
+     */
+    public static String encode(ByteBuffer data) {
+        ByteBuffer src = data.duplicate();
+        Sink sink = new Sink(encodedLength(src.remaining()));
+        try (OutputStream out = Base64.getEncoder().wrap(sink)) {
+            if (src.hasArray()) {
+                out.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            } else {
+                byte[] chunk = new byte[Math.min(CHUNK_SIZE, src.remaining())];
+                while (src.hasRemaining()) {
+                    int len = Math.min(chunk.length, src.remaining());
+                    src.get(chunk, 0, len);
+                    out.write(chunk, 0, len);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory doesn't fail.", e);
+        }
+        return sink.toString();
+    }
+
+    /**
+     * Encode the contents of the file, which is memory mapped rather than read.
+     */
+    public static String encode(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            encodedLength(size);
+            return encode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Encode everything left in the stream. The stream is not closed.
+     */
+    public static String encode(InputStream in) throws IOException {
+        // Start with what is available right now, often that is everything.
+        Sink sink = new Sink(encodedLength(Math.max(CHUNK_SIZE, in.available())));
+        OutputStream out = Base64.getEncoder().wrap(sink);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = in.read(chunk)) != -1)
+            out.write(chunk, 0, read);
+        out.close();
+        return sink.toString();
+    }
+
+    private static class Sink extends OutputStream {
+        private byte[] bytes;
+        private int count = 0;
+
+        private Sink(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        @Override
+        public void write(int b) {
+            this.write(new byte[]{ (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (this.count + len > this.bytes.length) {
+                if (this.count + len > MAX_ENCODED_LENGTH)
+                    throw new IllegalArgumentException("The payload is too large to display.");
+                this.bytes = Arrays.copyOf(this.bytes, (int) Math.min(MAX_ENCODED_LENGTH, Math.max(2L * this.bytes.length, this.count + len)));
+            }
+            System.arraycopy(b, off, this.bytes, this.count, len);
+            this.count += len;
+        }
+
+        @Override
+        public String toString() {
+            // Base64 is ASCII so this is a plain copy into the string.
+            return new String(this.bytes, 0, this.count, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps track of the entries on the classpath of a shell. Entries are added in batches which
+ * are passed on to the shell as a single update, rather than updating the compiler and the
+ * class loader once per jar.
+ * <p>
+ * An entry is skipped if it is already on the classpath, either because the same file was
+ * added before under a different path or because a jar with the exact same content was. The
+ * latter happens when the same artifact is found in more than one place, ex: the ivy cache and
+ * a {@code lib} folder. Only jars of the same size are hashed to compare their content.
+ * <p>
+ * The packages in each jar are indexed when it is added. The index is used to report packages
+ * that are split across more than one jar, which usually means two versions of the same library
+ * are on the classpath. Directories and the unnamed package are not indexed.
+ */
+public class ClasspathManager {
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String VERSIONED_PREFIX = "META-INF/versions/";
+    private static final int HASH_BUFFER_SIZE = 8192;
+
+    /**
+     * The result of adding a batch of entries to the classpath.
+     */
+    public static class Update {
+        private final List<String> added;
+        private final List<String> skipped;
+        private final Map<String, List<String>> splitPackages;
+
+        private Update(List<String> added, List<String> skipped, Map<String, List<String>> splitPackages) {
+            this.added = Collections.unmodifiableList(added);
+            this.skipped = Collections.unmodifiableList(skipped);
+            this.splitPackages = Collections.unmodifiableMap(splitPackages);
+        }
+
+        /**
+         * @return the entries that were added to the classpath, in the order they were given.
+         */
+        public List<String> getAdded() {
+            return this.added;
+        }
+
+        /**
+         * @return the entries that were skipped because they were already on the classpath.
+         */
+        public List<String> getSkipped() {
+            return this.skipped;
+        }
+
+        /**
+         * @return the packages that became split by this update, mapped to all of the jars that
+         *         contain them.
+         */
+        public Map<String, List<String>> getSplitPackages() {
+            return this.splitPackages;
+        }
+    }
+
+    private static class Entry {
+        private final String path;
+        private final File file;
+        private final long size;
+        private byte[] hash;
+        private Set<String> packages = Collections.emptySet();
+
+        private Entry(String path, File file) {
+            this.path = path;
+            this.file = file;
+            this.size = file.isFile() ? file.length() : -1;
+        }
+
+        private boolean isJar() {
+            return this.size >= 0;
+        }
+
+        private byte[] getHash() throws IOException {
+            if (this.hash == null)
+                this.hash = ClasspathManager.sha256(this.file);
+            return this.hash;
+        }
+    }
+
+    private final Consumer<String> classpathAppender;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<Long, List<Entry>> jarsBySize = new HashMap<>();
+    private final Map<String, List<Entry>> packageIndex = new HashMap<>();
+
+    /**
+     * @param classpathAppender adds entries, joined by the {@link File#pathSeparator path separator},
+     *                          to the classpath. For example {@link jdk.jshell.JShell#addToClasspath(String)}.
+     */
+    public ClasspathManager(Consumer<String> classpathAppender) {
+        this.classpathAppender = classpathAppender;
+    }
+
+    /**
+     * Add the entries that are not already on the classpath in a single update.
+     *
+     * @param paths the paths to jars or directories to add.
+     *
+     * @return what was added and what was skipped.
+     */
+    public synchronized Update add(Collection<String> paths) {
+        Map<String, Entry> pending = new LinkedHashMap<>();
+        List<String> skipped = new LinkedList<>();
+
+        for (String path : paths) {
+            File file = new File(path).getAbsoluteFile();
+            String key;
+            try {
+                key = file.getCanonicalPath();
+            } catch (IOException e) {
+                key = file.getPath();
+            }
+
+            if (this.entries.containsKey(key) || pending.containsKey(key)) {
+                skipped.add(path);
+                continue;
+            }
+
+            Entry entry = new Entry(path, file);
+            if (entry.isJar() && this.hasSameContent(entry, pending.values())) {
+                skipped.add(path);
+                continue;
+            }
+
+            pending.put(key, entry);
+        }
+
+        if (pending.isEmpty())
+            return new Update(Collections.emptyList(), skipped, Collections.emptyMap());
+
+        List<String> added = ClasspathManager.paths(pending.values());
+
+        // Only record the entries once the shell has accepted them, otherwise a failed update would
+        // have every later attempt to add them skipped.
+        this.classpathAppender.accept(String.join(File.pathSeparator, added));
+
+        Set<String> touchedPackages = new LinkedHashSet<>();
+        pending.forEach((key, entry) -> {
+            this.entries.put(key, entry);
+
+            if (entry.isJar()) {
+                this.jarsBySize.computeIfAbsent(entry.size, s -> new LinkedList<>()).add(entry);
+                entry.packages = ClasspathManager.readPackages(entry.file);
+                for (String pkg : entry.packages) {
+                    List<Entry> providers = this.packageIndex.computeIfAbsent(pkg, p -> new ArrayList<>(1));
+                    providers.add(entry);
+                    if (providers.size() > 1)
+                        touchedPackages.add(pkg);
+                }
+            }
+        });
+
+        Map<String, List<String>> splitPackages = new LinkedHashMap<>();
+        for (String pkg : touchedPackages)
+            splitPackages.put(pkg, ClasspathManager.paths(this.packageIndex.get(pkg)));
+
+        return new Update(added, skipped, splitPackages);
+    }
+
+    private boolean hasSameContent(Entry entry, Collection<Entry> pending) {
+        List<Entry> candidates = new LinkedList<>(this.jarsBySize.getOrDefault(entry.size, Collections.emptyList()));
+        for (Entry other : pending) {
+            if (other.size == entry.size)
+                candidates.add(other);
+        }
+
+        if (candidates.isEmpty())
+            return false;
+
+        try {
+            byte[] hash = entry.getHash();
+            for (Entry candidate : candidates) {
+                if (Arrays.equals(hash, candidate.getHash()))
+                    return true;
+            }
+        } catch (IOException e) {
+            // Can't tell, so let the shell have both.
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the entries on the classpath in the order they were added.
+     */
+    public synchronized List<String> getEntries() {
+        return ClasspathManager.paths(this.entries.values());
+    }
+
+    /**
+     * @return all of the packages that are split across more than one jar, mapped to those jars.
+     */
+    public synchronized Map<String, List<String>> getSplitPackages() {
+        Map<String, List<String>> split = new TreeMap<>();
+        this.packageIndex.forEach((pkg, providers) -> {
+            if (providers.size() > 1)
+                split.put(pkg, ClasspathManager.paths(providers));
+        });
+        return split;
+    }
+
+    private static List<String> paths(Collection<Entry> entries) {
+        List<String> paths = new ArrayList<>(entries.size());
+        for (Entry entry : entries)
+            paths.add(entry.path);
+        return paths;
+    }
+
+    private static Set<String> readPackages(File jar) {
+        Set<String> packages = new HashSet<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                String name = zipEntries.nextElement().getName();
+                if (!name.endsWith(CLASS_SUFFIX))
+                    continue;
+
+                // Classes for newer versions of java in a multi-release jar are still in the same package.
+                if (name.startsWith(VERSIONED_PREFIX)) {
+                    int versionEnd = name.indexOf('/', VERSIONED_PREFIX.length());
+                    if (versionEnd < 0) continue;
+                    name = name.substring(versionEnd + 1);
+                }
+
+                int lastSlash = name.lastIndexOf('/');
+                if (lastSlash < 0)
+                    continue;
+
+                packages.add(name.substring(0, lastSlash).replace('/', '.'));
+            }
+        } catch (IOException e) {
+            // Not a zip, the shell will decide what to do with it.
+        }
+        return packages;
+    }
+
+    private static byte[] sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM.", e);
+        }
+
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        }
+
+        return digest.digest();
+    }
+}
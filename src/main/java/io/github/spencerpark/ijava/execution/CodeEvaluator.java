@@ -26,7 +26,13 @@ package io.github.spencerpark.ijava.execution;
 import io.github.spencerpark.ijava.JavaKernel;
 import jdk.jshell.*;
 
-import java.util.List;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,12 +42,37 @@ public class CodeEvaluator {
 
     private static final String NO_MAGIC_RETURN = "\"__NO_MAGIC_RETURN\"";
 
+    /**
+     * Code evaluated and then dropped while warming up the compiler. It goes through the same
+     * compile, load and execute path as a user expression does.
+     */
+    private static final String WARM_UP_EXPRESSION = "java.util.Objects.hash(\"IJava\", 0)";
+    private static final String WARM_UP_COMPLETION = "String.valueOf(0).";
+
+    /**
+     * State versions are unique across evaluators so that a version from a replaced evaluator
+     * is never mistaken for one of the current evaluator.
+     */
+    private static final AtomicLong STATE_VERSIONS = new AtomicLong(0);
+
     private final JShell shell;
     private final IJavaExecutionControlProvider executionControlProvider;
     private final String executionControlID;
     private final SourceCodeAnalysis sourceAnalyzer;
+    private final SnippetCache snippetCache;
+    private final ClasspathManager classpath;
+
+    private volatile long stateVersion = STATE_VERSIONS.incrementAndGet();
 
+    private volatile BooleanSupplier unresolvedSymbolHandler = null;
+    private volatile StartupSnapshot startupSnapshot = null;
+
+    // Guarded by this evaluator's lock, see warmUp and warmUpInBackground.
     private boolean isInitialized = false;
+    private volatile Future<?> backgroundWarmUp = null;
+
+    private List<EvaluationStats> recordingStats = null;
+    private volatile List<EvaluationStats> lastEvaluationStats = Collections.emptyList();
     private final List<String> startupScripts;
 
     private final String indentation = "  ";
@@ -52,47 +83,287 @@ public class CodeEvaluator {
         this.executionControlID = executionControlID;
         this.sourceAnalyzer = this.shell.sourceCodeAnalysis();
         this.startupScripts = startupScripts;
+        this.snippetCache = new SnippetCache();
+        this.classpath = new ClasspathManager(this.shell::addToClasspath);
+    }
+
+    /**
+     * Set what to do when a snippet fails to compile because it refers to something that can't
+     * be found. The handler may wait for the classpath to change, ex: for dependencies that are
+     * being resolved in the background, and returns true if the snippet should be compiled again.
+     * Each snippet is retried at most once.
+     *
+     * @param handler the handler or {@code null} to report the failure right away.
+     */
+    public void setUnresolvedSymbolHandler(BooleanSupplier handler) {
+        this.unresolvedSymbolHandler = handler;
+    }
+
+    /**
+     * Set the snapshot to restore the startup scripts from instead of evaluating them. If it
+     * wasn't saved yet, the scripts are evaluated and the snapshot is saved in the background
+     * for the next evaluator.
+     *
+     * @param snapshot the snapshot of this evaluator's startup scripts or {@code null} to always
+     *                 evaluate them.
+     */
+    public void setStartupSnapshot(StartupSnapshot snapshot) {
+        this.startupSnapshot = snapshot;
     }
 
     public JShell getShell() {
+        this.awaitWarmUp();
         return this.shell;
     }
 
+    public SnippetCache getSnippetCache() {
+        return this.snippetCache;
+    }
+
+    /**
+     * Get the measurements of each snippet compiled or executed by the last completed call to
+     * {@link #eval(String)}. Snippets that were skipped because they were already up to date
+     * are not included.
+     *
+     * @return the stats of the snippets in the order they were evaluated.
+     */
+    public List<EvaluationStats> getLastEvaluationStats() {
+        return this.lastEvaluationStats;
+    }
+
+    /**
+     * Get a number identifying the set of declarations and classpath visible to code in the
+     * shell. It changes whenever either of those might have changed, which makes it suitable for
+     * checking if results computed from the shell's state, like completion suggestions, are
+     * still up to date.
+     *
+     * @return the current state version.
+     */
+    public long getStateVersion() {
+        return this.stateVersion;
+    }
+
+    private void stateChanged() {
+        this.stateVersion = STATE_VERSIONS.incrementAndGet();
+    }
+
+    public ClasspathManager getClasspath() {
+        return this.classpath;
+    }
+
+    public void addToClasspath(String path) {
+        this.addToClasspath(Collections.singletonList(path));
+    }
+
+    /**
+     * Add the entries to the classpath in a single update. Entries that are already on the
+     * classpath are skipped, see {@link ClasspathManager}.
+     *
+     * @param paths the paths to jars or directories to add.
+     *
+     * @return what was added and what was skipped.
+     */
+    public ClasspathManager.Update addToClasspath(Collection<String> paths) {
+        this.awaitWarmUp();
+        ClasspathManager.Update update = this.classpath.add(paths);
+        if (update.getAdded().isEmpty())
+            return update;
+
+        this.stateChanged();
+
+        // New classes may change what a cached declaration's source refers to.
+        this.snippetCache.clear();
+
+        return update;
+    }
+
+    public void drop(Snippet snippet) {
+        this.awaitWarmUp();
+        this.shell.drop(snippet);
+        this.stateChanged();
+    }
+
     private SourceCodeAnalysis.CompletionInfo analyzeCompletion(String source) {
         return this.sourceAnalyzer.analyzeCompletion(source);
     }
 
     private void init() throws Exception {
+        StartupSnapshot snapshot = this.startupSnapshot;
+        if (snapshot != null && this.restore(snapshot)) {
+            this.startupScripts.clear();
+            return;
+        }
+
         for (String script : this.startupScripts)
-            eval(script);
+            evalStatements(script);
 
         this.startupScripts.clear();
+
+        if (snapshot != null && !snapshot.isSaved()) {
+            StartupSnapshot.Plan plan = StartupSnapshot.plan(this.shell);
+            if (plan.hasMembers()) {
+                Thread t = new Thread(() -> {
+                    try {
+                        snapshot.save(plan);
+                    } catch (IOException e) {
+                        // The scripts are evaluated again next time which is no worse than without a snapshot.
+                    }
+                }, "IJava-startup-snapshot");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    private boolean restore(StartupSnapshot snapshot) {
+        StartupSnapshot.Restore restore = snapshot.load();
+        if (restore == null)
+            return false;
+
+        try {
+            // Called while initializing, so go straight to the classpath rather than waiting for
+            // the initialization to finish.
+            this.classpath.add(Collections.singletonList(restore.getClasses().toString()));
+            this.stateChanged();
+            this.evalStatements(restore.getReplay());
+            return true;
+        } catch (Exception e) {
+            // Likely saved by an incompatible kernel. The scripts' own declarations take precedence
+            // over anything that was already restored so evaluating them recovers.
+            snapshot.invalidate();
+            return false;
+        }
+    }
+
+    /**
+     * Run the startup scripts now instead of waiting for the first call to {@link #eval(String)}.
+     * This is used to prepare an evaluator ahead of time (for example on a background thread) so
+     * that it is ready to execute user code as soon as it is needed. If this evaluator was
+     * already initialized then this method does nothing. It shares a lock with
+     * {@link #warmUpInBackground()} so the startup scripts are only ever run once.
+     *
+     * @throws Exception if evaluating any of the startup scripts fails.
+     */
+    public synchronized void warmUp() throws Exception {
+        Future<?> background = this.backgroundWarmUp;
+        if (background != null) {
+            // Only the first caller sees a failure, the same as when initializing in the foreground.
+            this.backgroundWarmUp = null;
+            try {
+                background.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw e;
+            }
+            return;
+        }
+
+        if (!this.isInitialized) {
+            this.isInitialized = true;
+            init();
+        }
+    }
+
+    /**
+     * Start initializing this evaluator on a new daemon thread. In addition to running the startup
+     * scripts, a throwaway expression is compiled and executed to load and warm up the compiler
+     * before the user needs it. The next call to {@link #eval(String)} or {@link #warmUp()} waits
+     * for this work to finish and reports any exception thrown by the startup scripts.
+     * <p>
+     * The shell may not be used by multiple threads at once so anything that uses it directly
+     * should call {@link #awaitWarmUp()} first. If this evaluator was already initialized then
+     * this method does nothing.
+     */
+    public synchronized void warmUpInBackground() {
+        if (this.isInitialized) return;
+        this.isInitialized = true;
+
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            this.init();
+            this.warmUpCompiler();
+            return null;
+        });
+        this.backgroundWarmUp = task;
+
+        Thread t = new Thread(task, "IJava-evaluator-warm-up");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Wait for any initialization started by {@link #warmUpInBackground()} to finish. Unlike
+     * {@link #warmUp()} this doesn't consume a failure, which is left to be reported by the next
+     * evaluation.
+     */
+    public void awaitWarmUp() {
+        Future<?> background = this.backgroundWarmUp;
+        if (background == null) return;
+
+        try {
+            background.get();
+        } catch (ExecutionException e) {
+            // Reported by the next call to eval.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void warmUpCompiler() throws Exception {
+        IJavaExecutionControl executionControl =
+                this.executionControlProvider.getRegisteredControlByID(this.executionControlID);
+
+        List<SnippetEvent> events = this.shell.eval(WARM_UP_EXPRESSION);
+
+        String key = executionControl.takeLastInvocationKey();
+        if (key != null) {
+            executionControl.takeResult(key);
+            executionControl.takeStats(key);
+        }
+
+        for (SnippetEvent event : events)
+            this.shell.drop(event.snippet());
+
+        this.sourceAnalyzer.completionSuggestions(WARM_UP_COMPLETION, WARM_UP_COMPLETION.length(), new int[1]);
     }
 
     protected Object evalSingle(String code) throws Exception {
+        // Re-declaring exactly what is already declared doesn't have a result.
+        if (this.snippetCache.isUpToDate(this.shell, code))
+            return null;
+
         IJavaExecutionControl executionControl =
                 this.executionControlProvider.getRegisteredControlByID(this.executionControlID);
 
+        long evalStart = System.nanoTime();
         List<SnippetEvent> events = this.shell.eval(code);
+        long evalNanos = System.nanoTime() - evalStart;
+
+        // Statements only have an effect at runtime but everything else declares something, even
+        // expressions declare a temporary variable.
+        for (SnippetEvent event : events) {
+            if (event.snippet().kind() != Snippet.Kind.STATEMENT) {
+                this.stateChanged();
+                break;
+            }
+        }
+
+        // Take the result even if the snippet doesn't have one to show to not leak the memory.
+        String key = executionControl.takeLastInvocationKey();
+        Object value = key == null ? null : executionControl.takeResult(key);
+        EvaluationStats stats = key == null ? null : executionControl.takeStats(key);
 
         Object result = null;
 
-        // We iterate twice to make sure throwing an early exception doesn't leak the memory
-        // and we `takeResult` everything.
+        // We iterate twice to make sure throwing an early exception doesn't leak the memory.
         for (SnippetEvent event : events) {
-            String key = event.value();
-            if (key == null) continue;
-
-            Snippet.SubKind subKind = event.snippet().subKind();
+            if (event.value() == null) continue;
 
             // Only executable snippets make their way through the machinery we have setup in the
             // IJavaExecutionControl. Declarations for example simply take their default value without
             // being executed.
-            Object value = subKind.isExecutable()
-                    ? executionControl.takeResult(key)
-                    : event.value();
-
-            switch (subKind) {
+            switch (event.snippet().subKind()) {
                 case VAR_VALUE_SUBKIND:
                 case OTHER_EXPRESSION_SUBKIND:
                 case TEMP_VAR_EXPRESSION_SUBKIND:
@@ -104,9 +375,18 @@ public class CodeEvaluator {
             }
         }
 
+        if (this.recordingStats != null) {
+            // Everything in the shell's eval that wasn't executing the snippet was compiling it.
+            this.recordingStats.add(stats == null
+                    ? EvaluationStats.NONE.withCompileNanos(evalNanos)
+                    : stats.withCompileNanos(evalNanos - stats.getWallNanos()));
+        }
+
         for (SnippetEvent event : events) {
             // If fresh snippet
             if (event.causeSnippet() == null) {
+                this.snippetCache.evaluated(this.shell, code, event.snippet());
+
                 JShellException e = event.exception();
                 if (e != null) {
                     if (e instanceof EvalException) {
@@ -135,21 +415,73 @@ public class CodeEvaluator {
         // The init() method runs some code in the shell to initialize the environment. As such
         // it is deferred until the first user requested evaluation to cleanly return errors when
         // they happen.
-        if (!this.isInitialized) {
-            this.isInitialized = true;
-            init();
+        this.warmUp();
+
+        // Nested evaluations (ex: a %%time magic) record their own stats which are replaced by the
+        // enclosing evaluation's once it is done.
+        List<EvaluationStats> enclosingStats = this.recordingStats;
+        List<EvaluationStats> stats = new ArrayList<>();
+        this.recordingStats = stats;
+        try {
+            return this.evalStatements(code);
+        } finally {
+            this.recordingStats = enclosingStats;
+            this.lastEvaluationStats = Collections.unmodifiableList(stats);
         }
+    }
 
+    private Object evalStatements(String code) throws Exception {
         Object lastEvalResult = null;
+        for (String statement : this.splitStatements(code))
+            lastEvalResult = this.evalSingleWithRetry(statement);
+
+        return lastEvalResult;
+    }
+
+    private Object evalSingleWithRetry(String code) throws Exception {
+        try {
+            return this.evalSingle(code);
+        } catch (CompilationException e) {
+            BooleanSupplier handler = this.unresolvedSymbolHandler;
+            if (handler == null || !this.hasUnresolvedSymbols(e.getBadSnippetCompilation().snippet()))
+                throw e;
+
+            if (!handler.getAsBoolean())
+                throw e;
+
+            return this.evalSingle(code);
+        }
+    }
+
+    private boolean hasUnresolvedSymbols(Snippet snippet) {
+        // "cannot find symbol" and "package does not exist" are what missing dependencies look like.
+        return this.shell.diagnostics(snippet)
+                .map(Diag::getCode)
+                .anyMatch(c -> c.contains("cant.resolve") || c.contains("doesnt.exist"));
+    }
+
+    /**
+     * Split the code into the individual snippets that the shell evaluates. The whole cell is
+     * split before anything runs so that incomplete input is reported without partially
+     * executing the cell.
+     *
+     * @param code the code to split.
+     *
+     * @return the source of each snippet in order.
+     *
+     * @throws IncompleteSourceException if the code ends with an incomplete snippet.
+     */
+    public List<String> splitStatements(String code) throws IncompleteSourceException {
+        List<String> statements = new ArrayList<>();
         SourceCodeAnalysis.CompletionInfo info;
 
         for (info = this.sourceAnalyzer.analyzeCompletion(code); info.completeness().isComplete(); info = analyzeCompletion(info.remaining()))
-            lastEvalResult = this.evalSingle(info.source());
+            statements.add(info.source());
 
         if (info.completeness() != SourceCodeAnalysis.Completeness.EMPTY)
             throw new IncompleteSourceException(info.remaining().trim());
 
-        return lastEvalResult;
+        return statements;
     }
 
     private String computeIndentation(String partialStatement) {
@@ -197,6 +529,8 @@ public class CodeEvaluator {
     }
 
     public String isComplete(String code) {
+        this.awaitWarmUp();
+
         SourceCodeAnalysis.CompletionInfo info = this.sourceAnalyzer.analyzeCompletion(code);
         while (info.completeness().isComplete())
             info = analyzeCompletion(info.remaining());
@@ -30,8 +30,10 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Pattern;
 
 public class CodeEvaluatorBuilder {
@@ -44,12 +46,15 @@ public class CodeEvaluatorBuilder {
     private static final InputStream STDIN = new LazyInputStreamDelegate(() -> System.in);
 
     private String timeout;
+    private String executor;
     private final List<String> classpath;
     private final List<String> compilerOpts;
     private PrintStream out;
     private PrintStream err;
     private InputStream in;
     private List<String> startupScripts;
+    private BooleanSupplier unresolvedSymbolHandler;
+    private Path startupSnapshotDirectory;
 
     public CodeEvaluatorBuilder() {
         this.classpath = new LinkedList<>();
@@ -75,6 +80,11 @@ public class CodeEvaluatorBuilder {
         return this.timeoutFromString(String.format("%d %s", timeout, timeoutUnit.name()));
     }
 
+    public CodeEvaluatorBuilder executorFromString(String executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public CodeEvaluatorBuilder compilerOptsFromString(String opts) {
         if (opts == null) return this;
         this.compilerOpts.addAll(split(opts));
@@ -113,6 +123,32 @@ public class CodeEvaluatorBuilder {
         return this.stdin(CodeEvaluatorBuilder.STDIN);
     }
 
+    /**
+     * @see CodeEvaluator#setUnresolvedSymbolHandler(BooleanSupplier)
+     */
+    public CodeEvaluatorBuilder unresolvedSymbolHandler(BooleanSupplier handler) {
+        this.unresolvedSymbolHandler = handler;
+        return this;
+    }
+
+    /**
+     * Save a compiled snapshot of the startup scripts in the directory and restore evaluators from
+     * it instead of evaluating the scripts. See {@link StartupSnapshot}.
+     *
+     * @param directory the directory to keep snapshots in or {@code null} to disable them.
+     */
+    public CodeEvaluatorBuilder startupSnapshotDirectory(Path directory) {
+        this.startupSnapshotDirectory = directory;
+        return this;
+    }
+
+    public CodeEvaluatorBuilder startupSnapshotDirectoryFromString(String directory) {
+        if (directory == null) return this;
+        if (BLANK.matcher(directory).matches()) return this;
+
+        return this.startupSnapshotDirectory(Paths.get(directory));
+    }
+
     public CodeEvaluatorBuilder startupScript(String script) {
         if (script == null) return this;
         this.startupScripts.add(script);
@@ -192,6 +228,9 @@ public class CodeEvaluatorBuilder {
         if (this.timeout != null)
             executionControlParams.put(IJavaExecutionControlProvider.TIMEOUT_KEY, this.timeout);
 
+        if (this.executor != null)
+            executionControlParams.put(IJavaExecutionControlProvider.EXECUTOR_KEY, this.executor);
+
         JShell.Builder builder = JShell.builder();
         if (this.out != null) builder.out(this.out);
         if (this.err != null) builder.err(this.err);
@@ -202,19 +241,27 @@ public class CodeEvaluatorBuilder {
                 .compilerOptions(this.compilerOpts.toArray(new String[0]))
                 .build();
 
+        List<String> classpathEntries = new LinkedList<>();
         for (String cp : this.classpath) {
             if (BLANK.matcher(cp).matches()) continue;
 
             GlobFinder resolver = new GlobFinder(cp);
             try {
                 for (Path entry : resolver.computeMatchingPaths())
-                    shell.addToClasspath(entry.toAbsolutePath().toString());
+                    classpathEntries.add(entry.toAbsolutePath().toString());
             } catch (IOException e) {
                 throw new RuntimeException(String.format("IOException while computing classpath entries for '%s': %s", cp, e.getMessage()), e);
             }
         }
 
-        return new CodeEvaluator(shell, executionControlProvider, executionControlID, this.startupScripts);
+        // The evaluator consumes its startup scripts so give it a copy, allowing this builder
+        // to be reused for building more than one evaluator.
+        CodeEvaluator evaluator = new CodeEvaluator(shell, executionControlProvider, executionControlID, new LinkedList<>(this.startupScripts));
+        evaluator.setUnresolvedSymbolHandler(this.unresolvedSymbolHandler);
+        evaluator.addToClasspath(classpathEntries);
+        if (this.startupSnapshotDirectory != null)
+            evaluator.setStartupSnapshot(StartupSnapshot.forScripts(this.startupSnapshotDirectory, this.startupScripts, classpathEntries, this.compilerOpts));
+        return evaluator;
     }
 
     private static List<String> split(String opts) {
@@ -0,0 +1,150 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import io.github.spencerpark.jupyter.kernel.display.DisplayData;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Limits how often each display is updated. A loop updating a progress display on every
+ * iteration would otherwise send thousands of messages a second, which the frontend can't keep up
+ * with and which delay everything else sent to it.
+ * <p>
+ * The first update of a display is sent right away. Updates that come sooner than the interval
+ * after the last one sent are held back and only the latest of them is sent once the interval has
+ * passed, or when {@link #flush()} is called.
+ */
+public class DisplayUpdateThrottle {
+    public static final double DEFAULT_RATE = 10;
+
+    private final BiConsumer<String, DisplayData> sender;
+    private final ScheduledExecutorService scheduler;
+
+    private long intervalNanos;
+    private final Map<String, Pending> displays = new HashMap<>();
+
+    /**
+     * @param sender sends the update of the display with the id.
+     */
+    public DisplayUpdateThrottle(BiConsumer<String, DisplayData> sender) {
+        this.sender = sender;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "IJava-display-updater");
+            t.setDaemon(true);
+            return t;
+        });
+        this.setRate(DEFAULT_RATE);
+    }
+
+    /**
+     * Parse a rate for {@link #setRate(double)}.
+     *
+     * @param rate the number of updates per second.
+     *
+     * @return the rate or the {@link #DEFAULT_RATE} if {@code rate} is {@code null} or blank.
+     */
+    public static double parseRate(String rate) {
+        if (rate == null || rate.trim().isEmpty())
+            return DEFAULT_RATE;
+
+        try {
+            return Double.parseDouble(rate.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid display update rate '%s'. Expected a number of updates per second.", rate), e);
+        }
+    }
+
+    /**
+     * @param updatesPerSecond the most updates to send per second for each display or 0 to send
+     *                         all of them.
+     */
+    public synchronized void setRate(double updatesPerSecond) {
+        this.intervalNanos = updatesPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / updatesPerSecond) : 0;
+    }
+
+    public synchronized void update(String id, DisplayData data) {
+        if (this.intervalNanos <= 0) {
+            this.sender.accept(id, data);
+            return;
+        }
+
+        long now = System.nanoTime();
+        Pending display = this.displays.get(id);
+        if (display == null) {
+            display = new Pending();
+            this.displays.put(id, display);
+        } else if (now - display.lastSent < this.intervalNanos) {
+            display.data = data;
+            if (display.scheduled == null)
+                display.scheduled = this.scheduler.schedule(() -> this.sendLatest(id),
+                        display.lastSent + this.intervalNanos - now, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        display.data = null;
+        display.lastSent = now;
+        this.sender.accept(id, data);
+    }
+
+    private synchronized void sendLatest(String id) {
+        Pending display = this.displays.get(id);
+        if (display == null)
+            return;
+
+        display.scheduled = null;
+        if (display.data != null) {
+            DisplayData data = display.data;
+            display.data = null;
+            display.lastSent = System.nanoTime();
+            this.sender.accept(id, data);
+        }
+    }
+
+    /**
+     * Send the updates that are held back now and forget about the displays, their next update is
+     * sent right away.
+     */
+    public synchronized void flush() {
+        this.displays.forEach((id, display) -> {
+            if (display.scheduled != null)
+                display.scheduled.cancel(false);
+            if (display.data != null)
+                this.sender.accept(id, display.data);
+        });
+        this.displays.clear();
+    }
+
+    private static class Pending {
+        private DisplayData data;
+        private long lastSent;
+        private ScheduledFuture<?> scheduled;
+    }
+}
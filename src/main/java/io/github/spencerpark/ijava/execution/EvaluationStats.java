@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of evaluating a snippet, split into compiling it and executing it. The execution
+ * measurements are of the thread that ran the code. Any measurement that the JVM does not support
+ * is reported as {@link #UNAVAILABLE}.
+ */
+public class EvaluationStats {
+    public static final long UNAVAILABLE = -1;
+
+    public static final EvaluationStats NONE = new EvaluationStats(0, 0, 0, 0, 0);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = THREADS instanceof com.sun.management.ThreadMXBean
+            ? (com.sun.management.ThreadMXBean) THREADS
+            : null;
+    private static final List<GarbageCollectorMXBean> GARBAGE_COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private final long compileNanos;
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+    private final long gcMillis;
+
+    public EvaluationStats(long compileNanos, long wallNanos, long cpuNanos, long allocatedBytes, long gcMillis) {
+        this.compileNanos = compileNanos;
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.gcMillis = gcMillis;
+    }
+
+    public static long currentThreadCpuNanos() {
+        try {
+            return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : UNAVAILABLE;
+        } catch (UnsupportedOperationException e) {
+            return UNAVAILABLE;
+        }
+    }
+
+    public static long currentThreadAllocatedBytes() {
+        try {
+            return ALLOCATIONS != null && ALLOCATIONS.isThreadAllocatedMemoryEnabled()
+                    ? ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId())
+                    : UNAVAILABLE;
+        } catch (UnsupportedOperationException e) {
+            return UNAVAILABLE;
+        }
+    }
+
+    public static long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : GARBAGE_COLLECTORS) {
+            long time = gc.getCollectionTime();
+            if (time < 0) return UNAVAILABLE;
+            total += time;
+        }
+        return total;
+    }
+
+    public static long since(long start, long end) {
+        return start < 0 || end < 0 ? UNAVAILABLE : end - start;
+    }
+
+    public static EvaluationStats total(Iterable<EvaluationStats> stats) {
+        EvaluationStats total = NONE;
+        for (EvaluationStats s : stats)
+            total = total.plus(s);
+        return total;
+    }
+
+    private static long plus(long a, long b) {
+        return a == UNAVAILABLE || b == UNAVAILABLE ? UNAVAILABLE : a + b;
+    }
+
+    public EvaluationStats plus(EvaluationStats other) {
+        return new EvaluationStats(
+                plus(this.compileNanos, other.compileNanos),
+                plus(this.wallNanos, other.wallNanos),
+                plus(this.cpuNanos, other.cpuNanos),
+                plus(this.allocatedBytes, other.allocatedBytes),
+                plus(this.gcMillis, other.gcMillis)
+        );
+    }
+
+    public EvaluationStats withCompileNanos(long compileNanos) {
+        return new EvaluationStats(compileNanos, this.wallNanos, this.cpuNanos, this.allocatedBytes, this.gcMillis);
+    }
+
+    /**
+     * @return the time spent in the shell outside of executing the code. This is mostly spent
+     *         compiling the snippet.
+     */
+    public long getCompileNanos() {
+        return this.compileNanos;
+    }
+
+    /**
+     * @return the elapsed time while executing the code.
+     */
+    public long getWallNanos() {
+        return this.wallNanos;
+    }
+
+    /**
+     * @return the cpu time used by the thread executing the code.
+     */
+    public long getCpuNanos() {
+        return this.cpuNanos;
+    }
+
+    /**
+     * @return the number of bytes allocated by the thread executing the code.
+     */
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * @return the time spent collecting garbage, in any thread, while the code was executing.
+     */
+    public long getGcMillis() {
+        return this.gcMillis;
+    }
+
+    public long getTotalNanos() {
+        return this.compileNanos + this.wallNanos;
+    }
+
+    public static String formatNanos(double nanos) {
+        if (nanos == UNAVAILABLE) return "n/a";
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(1)) return String.format("%.1f ns", nanos);
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(1)) return String.format("%.1f us", nanos / 1e3);
+        if (nanos < TimeUnit.SECONDS.toNanos(1)) return String.format("%.1f ms", nanos / 1e6);
+        return String.format("%.2f s", nanos / 1e9);
+    }
+
+    public static String formatBytes(long bytes) {
+        if (bytes == UNAVAILABLE) return "n/a";
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KiB", bytes / 1024.0);
+        if (bytes < 1024 * 1024 * 1024) return String.format("%.1f MiB", bytes / (1024.0 * 1024));
+        return String.format("%.2f GiB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Wall time: %s (compile: %s, execute: %s), CPU time: %s, Allocated: %s, GC: %s",
+                formatNanos(this.getTotalNanos()),
+                formatNanos(this.compileNanos),
+                formatNanos(this.wallNanos),
+                formatNanos(this.cpuNanos),
+                formatBytes(this.allocatedBytes),
+                this.gcMillis == UNAVAILABLE ? "n/a" : this.gcMillis + " ms"
+        );
+    }
+}
@@ -34,6 +34,7 @@ import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * An ExecutionControl very similar to {@link jdk.jshell.execution.LocalExecutionControl} but which
@@ -58,22 +59,82 @@ public class IJavaExecutionControl extends DirectExecutionControl {
 
     private static final AtomicInteger EXECUTOR_THREAD_ID = new AtomicInteger(0);
 
-    private final ExecutorService executor;
+    /**
+     * How long a cancelled execution has to stop before the thread running it is considered stuck.
+     */
+    private static final long STUCK_WORKER_GRACE_MS = 1000;
+
+    /**
+     * Creates a new executor to replace one with a stuck worker, or {@code null} if the executor
+     * can't be replaced.
+     */
+    private final Supplier<ExecutorService> executorFactory;
+    private volatile ExecutorService executor;
 
     private final long timeoutTime;
     private final TimeUnit timeoutUnit;
 
-    private final ConcurrentMap<String, Future<Object>> running = new ConcurrentHashMap<>();
+    /**
+     * Set while a thread is executing user code submitted to this control. Code running in the
+     * kernel may evaluate more code (ex: the {@code eval} function or a {@code %load} magic) and
+     * that nested execution must run inline. Submitting it would deadlock an executor that has
+     * no spare threads, such as the dedicated single thread.
+     */
+    private final ThreadLocal<Boolean> isExecutorThread = new ThreadLocal<>();
+
+    private final ConcurrentMap<String, Future<?>> running = new ConcurrentHashMap<>();
     private final Map<String, Object> results = new ConcurrentHashMap<>();
+    private final Map<String, EvaluationStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * The key of the last invocation made by each thread that hasn't been taken yet. The shell
+     * only reports the key returned from {@link #invoke(Method)} as the value of an expression
+     * and not a statement, but the result must be taken either way. As the shell invokes at most
+     * one snippet per call to {@link jdk.jshell.JShell#eval(String)}, on the calling thread, this
+     * is the key of that snippet.
+     */
+    private final ThreadLocal<String> lastInvocation = new ThreadLocal<>();
 
     public IJavaExecutionControl() {
         this(-1, TimeUnit.MILLISECONDS);
     }
 
     public IJavaExecutionControl(long timeoutTime, TimeUnit timeoutUnit) {
+        this(Executors.newCachedThreadPool(IJavaExecutionControl::newExecutorThread), timeoutTime, timeoutUnit);
+    }
+
+    public IJavaExecutionControl(ExecutorService executor, long timeoutTime, TimeUnit timeoutUnit) {
         this.timeoutTime = timeoutTime;
         this.timeoutUnit = timeoutTime > 0 ? Objects.requireNonNull(timeoutUnit) : TimeUnit.MILLISECONDS;
-        this.executor = Executors.newCachedThreadPool(r -> new Thread(r, "IJava-executor-" + EXECUTOR_THREAD_ID.getAndIncrement()));
+        this.executorFactory = null;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Create a control that runs the user code on executors created by the {@code executorFactory}.
+     * When a timed out or interrupted execution doesn't stop, because the code doesn't respond to
+     * interrupts, the executor is abandoned along with the stuck thread and replaced with a new one
+     * so that later executions don't wait for a thread that never frees up. The stuck thread is
+     * left to finish on its own.
+     *
+     * @param executorFactory creates the executor to use now and its replacements.
+     */
+    public IJavaExecutionControl(Supplier<ExecutorService> executorFactory, long timeoutTime, TimeUnit timeoutUnit) {
+        this.timeoutTime = timeoutTime;
+        this.timeoutUnit = timeoutTime > 0 ? Objects.requireNonNull(timeoutUnit) : TimeUnit.MILLISECONDS;
+        this.executorFactory = Objects.requireNonNull(executorFactory);
+        this.executor = Objects.requireNonNull(executorFactory.get());
+    }
+
+    /**
+     * A {@link ThreadFactory} for the platform threads that execute user code.
+     *
+     * @param r the runnable that the thread should run.
+     *
+     * @return a new, unstarted, thread.
+     */
+    public static Thread newExecutorThread(Runnable r) {
+        return new Thread(r, "IJava-executor-" + EXECUTOR_THREAD_ID.getAndIncrement());
     }
 
     public long getTimeoutDuration() {
@@ -84,6 +145,18 @@ public class IJavaExecutionControl extends DirectExecutionControl {
         return timeoutUnit;
     }
 
+    /**
+     * Take the key of the last invocation made by the current thread, if there was one since the
+     * last time this was called.
+     *
+     * @return the key for looking up the result, or {@code null} if nothing was invoked.
+     */
+    public String takeLastInvocationKey() {
+        String key = this.lastInvocation.get();
+        this.lastInvocation.remove();
+        return key;
+    }
+
     public Object takeResult(String key) {
         Object result = this.results.remove(key);
         if (result == null)
@@ -91,8 +164,73 @@ public class IJavaExecutionControl extends DirectExecutionControl {
         return result == NULL ? null : result;
     }
 
-    private Object execute(String key, Method doitMethod) throws TimeoutException, Exception {
-        Future<Object> runningTask = this.executor.submit(() -> doitMethod.invoke(null));
+    /**
+     * Take the measurements of the invocation that produced the result with the same key. Like
+     * the result, these must be taken for every invocation.
+     *
+     * @param key the key returned by the invocation.
+     *
+     * @return the measurements of the invocation. Compile time is always 0.
+     */
+    public EvaluationStats takeStats(String key) {
+        EvaluationStats stats = this.stats.remove(key);
+        if (stats == null)
+            throw new IllegalStateException("No stats with key: " + key);
+        return stats;
+    }
+
+    private static class MeasuredResult {
+        private final Object value;
+        private final EvaluationStats stats;
+
+        private MeasuredResult(Object value, EvaluationStats stats) {
+            this.value = value;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Invoke the method on the current thread while measuring the cost of doing so. The
+     * measurements are only a handful of reads of counters maintained by the JVM and so they
+     * are always taken.
+     */
+    private static MeasuredResult invokeMeasured(Method doitMethod) throws Exception {
+        long gcStart = EvaluationStats.totalGcMillis();
+        long allocatedStart = EvaluationStats.currentThreadAllocatedBytes();
+        long cpuStart = EvaluationStats.currentThreadCpuNanos();
+        long wallStart = System.nanoTime();
+
+        Object value = doitMethod.invoke(null);
+
+        long wallEnd = System.nanoTime();
+        long cpuEnd = EvaluationStats.currentThreadCpuNanos();
+        long allocatedEnd = EvaluationStats.currentThreadAllocatedBytes();
+        long gcEnd = EvaluationStats.totalGcMillis();
+
+        return new MeasuredResult(value, new EvaluationStats(
+                0,
+                wallEnd - wallStart,
+                EvaluationStats.since(cpuStart, cpuEnd),
+                EvaluationStats.since(allocatedStart, allocatedEnd),
+                EvaluationStats.since(gcStart, gcEnd)
+        ));
+    }
+
+    private MeasuredResult execute(String key, Method doitMethod) throws TimeoutException, Exception {
+        if (this.isExecutorThread.get() != null)
+            return this.executeInline(doitMethod);
+
+        ExecutorService executor = this.executor;
+        CountDownLatch finished = new CountDownLatch(1);
+        Future<MeasuredResult> runningTask = executor.submit(() -> {
+            this.isExecutorThread.set(Boolean.TRUE);
+            try {
+                return invokeMeasured(doitMethod);
+            } finally {
+                this.isExecutorThread.remove();
+                finished.countDown();
+            }
+        });
 
         this.running.put(key, runningTask);
 
@@ -102,13 +240,14 @@ public class IJavaExecutionControl extends DirectExecutionControl {
             return runningTask.get();
         } catch (CancellationException e) {
             // If canceled this means that stop() or interrupt() was invoked.
-            if (this.executor.isShutdown())
+            if (executor.isShutdown())
                 // If the executor is shutdown, the situation is the former in which
                 // case the protocol is to throw an ExecutionControl.StoppedException.
                 throw new StoppedException();
-            else
-                // The execution was purposely interrupted.
-                throw new UserException(
+
+            // The execution was purposely interrupted.
+            this.replaceIfStuck(executor, finished);
+            throw new UserException(
                         "Execution interrupted.",
                         EXECUTION_INTERRUPTED_NAME,
                         e.getStackTrace()
@@ -120,13 +259,12 @@ public class IJavaExecutionControl extends DirectExecutionControl {
                 // Unbox further
                 cause = cause.getCause();
             }
-            if (cause == null)
-                throw new UserException("null", "Unknown Invocation Exception", e.getStackTrace());
-            else if (cause instanceof SPIResolutionException)
-                throw new ResolutionException(((SPIResolutionException) cause).id(), cause.getStackTrace());
-            else
-                throw new UserException(String.valueOf(cause.getMessage()), String.valueOf(cause.getClass().getName()), cause.getStackTrace());
+            throw this.wrapUserThrowable(cause, e.getStackTrace());
         } catch (TimeoutException e) {
+            // Don't leave the task running, an executor with a fixed number of threads would
+            // otherwise never get the thread back.
+            runningTask.cancel(true);
+            this.replaceIfStuck(executor, finished);
             throw new UserException(
                     String.format("Execution timed out after configured timeout of %d %s.", this.timeoutTime, this.timeoutUnit.toString().toLowerCase()),
                     EXECUTION_TIMEOUT_NAME,
@@ -137,6 +275,48 @@ public class IJavaExecutionControl extends DirectExecutionControl {
         }
     }
 
+    /**
+     * Replace the {@code executor} if the cancelled execution doesn't finish within the
+     * {@link #STUCK_WORKER_GRACE_MS grace period}. Its thread is never given back otherwise.
+     */
+    private void replaceIfStuck(ExecutorService executor, CountDownLatch finished) {
+        if (this.executorFactory == null)
+            return;
+
+        try {
+            if (finished.await(STUCK_WORKER_GRACE_MS, TimeUnit.MILLISECONDS))
+                return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (this.executor != executor || executor.isShutdown())
+                return;
+
+            this.executor = this.executorFactory.get();
+            // Lets the threads go once they are done, including the stuck one if it ever is.
+            executor.shutdown();
+        }
+    }
+
+    private MeasuredResult executeInline(Method doitMethod) throws Exception {
+        try {
+            return invokeMeasured(doitMethod);
+        } catch (InvocationTargetException e) {
+            throw this.wrapUserThrowable(e.getCause(), e.getStackTrace());
+        }
+    }
+
+    private ExecutionControlException wrapUserThrowable(Throwable cause, StackTraceElement[] fallbackTrace) {
+        if (cause == null)
+            return new UserException("null", "Unknown Invocation Exception", fallbackTrace);
+        else if (cause instanceof SPIResolutionException)
+            return new ResolutionException(((SPIResolutionException) cause).id(), cause.getStackTrace());
+        else
+            return new UserException(String.valueOf(cause.getMessage()), String.valueOf(cause.getClass().getName()), cause.getStackTrace());
+    }
+
     /**
      * This method was hijacked and actually only returns a key that can be
      * later retrieved via {@link #takeResult(String)}. This should be called
@@ -150,8 +330,10 @@ public class IJavaExecutionControl extends DirectExecutionControl {
     @Override
     protected String invoke(Method doitMethod) throws Exception {
         String id = UUID.randomUUID().toString();
-        Object value = this.execute(id, doitMethod);
-        this.results.put(id, value);
+        MeasuredResult result = this.execute(id, doitMethod);
+        this.results.put(id, result.value == null ? NULL : result.value);
+        this.stats.put(id, result.stats);
+        this.lastInvocation.set(id);
         return id;
     }
 
@@ -162,7 +344,9 @@ public class IJavaExecutionControl extends DirectExecutionControl {
 
     @Override
     public void stop() throws EngineTerminationException, InternalException {
-        this.executor.shutdownNow();
+        synchronized (this) {
+            this.executor.shutdownNow();
+        }
     }
 
     @Override
@@ -27,9 +27,14 @@ import jdk.jshell.spi.ExecutionControl;
 import jdk.jshell.spi.ExecutionControlProvider;
 import jdk.jshell.spi.ExecutionEnv;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,7 +52,25 @@ public class IJavaExecutionControlProvider implements ExecutionControlProvider {
      */
     public static final String TIMEOUT_KEY = "timeout";
 
+    /**
+     * The parameter key that when given selects the executor that runs the user code. The value
+     * is one of:
+     * <ul>
+     *     <li>{@code cached} (default) a thread from a growing pool of threads.</li>
+     *     <li>{@code single} a single, long lived, thread for all executions. Thread locals and thread
+     *     identity are preserved between cells.</li>
+     *     <li>{@code bounded:N} a pool of at most {@code N} threads.</li>
+     *     <li>{@code virtual} a new virtual thread for each execution. This requires a runtime
+     *     with virtual thread support (java 21+).</li>
+     * </ul>
+     * If a timed out or interrupted execution doesn't stop, the executor is replaced with a new one
+     * of the same kind so that a stuck thread doesn't hold up the cells that come after it. With
+     * {@code single} this means that later cells run on a new thread.
+     */
+    public static final String EXECUTOR_KEY = "executor";
+
     private static final Pattern TIMEOUT_PATTERN = Pattern.compile("^(?<dur>-?\\d+)\\W*(?<unit>[A-Za-z]+)?$");
+    private static final Pattern EXECUTOR_PATTERN = Pattern.compile("^(?<kind>[A-Za-z]+)(?::(?<size>\\d+))?$");
 
     private final Map<String, IJavaExecutionControl> controllers = new WeakHashMap<>();
 
@@ -82,9 +105,12 @@ public class IJavaExecutionControlProvider implements ExecutionControlProvider {
             }
         }
 
-        IJavaExecutionControl control = timeout > 0
-                ? new IJavaExecutionControl(timeout, timeUnit)
-                : new IJavaExecutionControl();
+        String executorRaw = parameters.get(EXECUTOR_KEY);
+        Supplier<ExecutorService> executorFactory = executorRaw != null
+                ? executorFactory(executorRaw)
+                : () -> Executors.newCachedThreadPool(IJavaExecutionControl::newExecutorThread);
+
+        IJavaExecutionControl control = new IJavaExecutionControl(executorFactory, timeout, timeUnit);
 
         String id = parameters.get(REGISTRATION_ID_KEY);
         if (id != null)
@@ -92,4 +118,42 @@ public class IJavaExecutionControlProvider implements ExecutionControlProvider {
 
         return control;
     }
+
+    private static Supplier<ExecutorService> executorFactory(String executorRaw) {
+        Matcher m = EXECUTOR_PATTERN.matcher(executorRaw.trim());
+        if (!m.matches())
+            throw new IllegalArgumentException("Invalid executor string: " + executorRaw);
+
+        String kind = m.group("kind").toLowerCase();
+        String size = m.group("size");
+
+        switch (kind) {
+            case "cached":
+                return () -> Executors.newCachedThreadPool(IJavaExecutionControl::newExecutorThread);
+            case "single":
+                return () -> Executors.newSingleThreadExecutor(IJavaExecutionControl::newExecutorThread);
+            case "bounded":
+                if (size == null || Integer.parseInt(size) < 1)
+                    throw new IllegalArgumentException("A bounded executor requires a size of at least 1 (ex: 'bounded:4'): " + executorRaw);
+                int threads = Integer.parseInt(size);
+                return () -> Executors.newFixedThreadPool(threads, IJavaExecutionControl::newExecutorThread);
+            case "virtual":
+                // Compiled against an older release so look up the factory reflectively.
+                Method factory;
+                try {
+                    factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalArgumentException("Virtual thread executor is not supported by java " + Runtime.version());
+                }
+                return () -> {
+                    try {
+                        return (ExecutorService) factory.invoke(null);
+                    } catch (IllegalAccessException | InvocationTargetException e) {
+                        throw new IllegalArgumentException("Cannot create a virtual thread executor: " + e.getMessage(), e);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Invalid executor kind: " + kind);
+        }
+    }
 }
@@ -0,0 +1,823 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces the writes to a set of output streams into fewer, larger writes. Every flush of a
+ * stream connected to a frontend is sent as a separate message so a loop that prints a line at a
+ * time would otherwise send a message per line, which the frontend has to render one at a time.
+ * <p>
+ * Written bytes are buffered and passed on once enough are buffered, when they have been
+ * buffered for longer than a short deadline, or when {@link #flush()} is called. The deadline
+ * keeps slowly printed output flowing. Explicitly flushing one of the streams does not pass on the
+ * buffered bytes, otherwise the many writers that flush after every line would defeat the
+ * purpose, but they are still passed on within the deadline.
+ * <p>
+ * All of the streams share one buffer so that the order of writes across streams is kept. A
+ * write to a different stream than the buffered bytes are for first passes those on.
+ * <p>
+ * While attached to the system streams the output can be limited, which keeps a cell that prints
+ * in an unbounded loop from flooding the frontend. The {@link #setCellLimit(long) cell limit}
+ * caps the bytes passed on for each attachment. After that only the last bytes are kept, in a
+ * ring buffer, and they are passed on when the attachment is closed along with the number of
+ * bytes that were dropped. The {@link #setRateLimit(long) rate limit} caps the bytes per second,
+ * writers that go over it are blocked until they are back under it.
+ * <p>
+ * The {@link #printStream(OutputStream) print streams} that replace the system streams buffer the
+ * output of each thread separately and pass on whole lines, so that threads printing in parallel
+ * don't contend on a lock for every write and their lines are not interleaved.
+ */
+public class OutputCoalescer {
+    public static final int DEFAULT_THRESHOLD = 8 * 1024;
+    public static final long DEFAULT_DEADLINE_MS = 50;
+    public static final int DEFAULT_TAIL_SIZE = 4 * 1024;
+    private static final int THREAD_BUFFER_THRESHOLD = 4 * 1024;
+
+    private final int threshold;
+    private final long deadlineMillis;
+    private final ScheduledExecutorService flusher;
+
+    private final Object lock = new Object();
+    private byte[] buffer;
+    private int count = 0;
+    private OutputStream bufferedFor = null;
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    private long cellLimit = 0;
+    private long rateLimit = 0;
+    private int tailSize = DEFAULT_TAIL_SIZE;
+
+    private long accepted = 0;
+    private boolean truncated = false;
+    private long truncatedBytes = 0;
+    private byte[] tail;
+    private int tailEnd = 0;
+    private long tailWritten = 0;
+    private final Deque<Run> tailRuns = new ArrayDeque<>();
+
+    private final ThreadLocal<ThreadBuffer> threadBuffers = ThreadLocal.withInitial(ThreadBuffer::new);
+    private final Queue<ThreadBuffer> pendingThreadBuffers = new ConcurrentLinkedQueue<>();
+
+    private double tokens = 0;
+    private long tokensUpdated = System.nanoTime();
+
+    private int attachments = 0;
+    private PrintStream detachedOut;
+    private PrintStream detachedErr;
+
+    public OutputCoalescer() {
+        this(DEFAULT_THRESHOLD, DEFAULT_DEADLINE_MS);
+    }
+
+    /**
+     * @param threshold      the number of bytes to buffer before passing them on.
+     * @param deadlineMillis the longest time to buffer bytes for.
+     */
+    public OutputCoalescer(int threshold, long deadlineMillis) {
+        this.threshold = threshold;
+        this.deadlineMillis = deadlineMillis;
+        this.buffer = new byte[threshold];
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "IJava-output-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Parse a size in bytes, optionally suffixed with {@code k}, {@code m} or {@code g} (case
+     * insensitive, with an optional {@code b}) for kibibytes, mebibytes and gibibytes.
+     *
+     * @param size the size to parse.
+     *
+     * @return the number of bytes or 0 if {@code size} is {@code null} or blank.
+     */
+    public static long parseSize(String size) {
+        if (size == null || size.trim().isEmpty())
+            return 0;
+
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        if (value.endsWith("b"))
+            value = value.substring(0, value.length() - 1);
+
+        long unit = 1;
+        int suffix = value.isEmpty() ? -1 : "kmg".indexOf(value.charAt(value.length() - 1));
+        if (suffix >= 0) {
+            unit = 1L << (10 * (suffix + 1));
+            value = value.substring(0, value.length() - 1).trim();
+        }
+
+        try {
+            return Long.parseLong(value) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid size '%s'. Expected a number of bytes, optionally followed by k, m or g.", size), e);
+        }
+    }
+
+    /**
+     * Limit the bytes passed on while attached to the system streams, see the class documentation.
+     *
+     * @param limit the number of bytes to pass on for each attachment or 0 for no limit.
+     */
+    public void setCellLimit(long limit) {
+        synchronized (this.lock) {
+            this.cellLimit = limit;
+        }
+    }
+
+    /**
+     * Limit the bytes written per second while attached to the system streams, see the class
+     * documentation. Bursts of up to a second's worth of bytes are let through at once.
+     *
+     * @param bytesPerSecond the number of bytes to accept per second or 0 for no limit.
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        synchronized (this.lock) {
+            this.rateLimit = bytesPerSecond;
+            this.tokens = bytesPerSecond;
+            this.tokensUpdated = System.nanoTime();
+        }
+    }
+
+    /**
+     * @param tailSize the number of bytes at the end of the output to keep when it goes over the
+     *                 cell limit.
+     */
+    public void setTailSize(int tailSize) {
+        synchronized (this.lock) {
+            this.tailSize = tailSize;
+            this.tail = null;
+        }
+    }
+
+    /**
+     * Create a stream that coalesces the writes to {@code target}.
+     *
+     * @param target the stream to pass the buffered bytes on to.
+     *
+     * @return a stream writing to {@code target} through this coalescer.
+     */
+    public OutputStream coalesce(OutputStream target) {
+        return new CoalescedStream(target);
+    }
+
+    /**
+     * Replace {@link System#out} and {@link System#err} with streams that coalesce writes to them
+     * until the returned attachment is closed. Closing it passes on everything that is buffered and
+     * puts back the original streams. Attaching again before that is allowed, only the outermost
+     * attachment replaces and restores the streams.
+     *
+     * @return the attachment to close once done writing.
+     */
+    public Attachment attachToSystemStreams() {
+        synchronized (this.lock) {
+            if (this.attachments++ == 0) {
+                this.accepted = 0;
+                this.truncated = false;
+                this.detachedOut = System.out;
+                this.detachedErr = System.err;
+                System.setOut(this.printStream(this.detachedOut));
+                System.setErr(this.printStream(this.detachedErr));
+            }
+        }
+        return this::detach;
+    }
+
+    /**
+     * Create a print stream that coalesces the writes to {@code target}, buffering the output of
+     * each thread separately. Unlike a regular {@link PrintStream} it doesn't lock the stream while
+     * printing.
+     *
+     * @param target the stream to pass the buffered bytes on to.
+     *
+     * @return a print stream writing to {@code target} through this coalescer.
+     */
+    public PrintStream printStream(OutputStream target) {
+        try {
+            return new ThreadBufferedPrintStream(target);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is required to be supported by every JVM.", e);
+        }
+    }
+
+    private void detach() {
+        // Drain the thread buffers before taking the lock, draining takes the locks the other way around.
+        this.drainThreadBuffers(true);
+        synchronized (this.lock) {
+            try {
+                this.flushLocked(this.count);
+            } catch (IOException e) {
+                // The target is closed, there is nowhere to put the output.
+            }
+            if (--this.attachments == 0) {
+                this.passOnTail();
+                System.setOut(this.detachedOut);
+                System.setErr(this.detachedErr);
+                this.detachedOut = null;
+                this.detachedErr = null;
+            }
+        }
+    }
+
+    /**
+     * An attachment to the system streams which restores them when closed.
+     */
+    public interface Attachment extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Pass on everything that is buffered now.
+     */
+    public void flush() {
+        this.drainThreadBuffers(true);
+        synchronized (this.lock) {
+            try {
+                this.flushLocked(this.count);
+            } catch (IOException e) {
+                // The target is closed, there is nowhere to put the output.
+            }
+        }
+    }
+
+    private void write(OutputStream target, byte[] b, int off, int len) throws IOException {
+        synchronized (this.lock) {
+            if (this.attachments == 0) {
+                this.append(target, b, off, len);
+                return;
+            }
+
+            if (this.cellLimit > 0 && !this.truncated && this.accepted + len > this.cellLimit) {
+                int head = this.charBoundary(b, off, (int) (this.cellLimit - this.accepted));
+                this.truncate(target, b, off + head, len - head);
+                len = head;
+            } else if (this.truncated) {
+                this.truncate(target, b, off, len);
+                return;
+            }
+
+            while (len > 0) {
+                int accept = this.acquire(len);
+                this.append(target, b, off, accept);
+                this.accepted += accept;
+                off += accept;
+                len -= accept;
+            }
+        }
+    }
+
+    /**
+     * Wait until some of {@code len} bytes may be written under the rate limit.
+     *
+     * @return the number of bytes that may be written.
+     */
+    private int acquire(int len) throws IOException {
+        if (this.rateLimit <= 0)
+            return len;
+
+        // Wait until all of it can be written at once, other writers may get in between otherwise.
+        double wanted = Math.min(len, this.rateLimit);
+        while (true) {
+            long now = System.nanoTime();
+            // In floating point as the idle time between cells times the rate overflows a long.
+            this.tokens = Math.min(this.rateLimit, this.tokens + (now - this.tokensUpdated) / 1e9 * this.rateLimit);
+            this.tokensUpdated = now;
+
+            if (this.tokens >= wanted) {
+                int accept = (int) Math.min(len, (long) this.tokens);
+                this.tokens -= accept;
+                return accept;
+            }
+
+            long waitMillis = (long) Math.ceil((wanted - this.tokens) * 1000 / this.rateLimit);
+            try {
+                // Releases the lock so the buffered output keeps being passed on while waiting.
+                this.lock.wait(Math.max(1, waitMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to write output.");
+            }
+        }
+    }
+
+    private void append(OutputStream target, byte[] b, int off, int len) throws IOException {
+        if (this.bufferedFor != target)
+            this.flushLocked(this.count);
+        this.bufferedFor = target;
+
+        if (this.count + len > this.buffer.length)
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.count + len));
+        System.arraycopy(b, off, this.buffer, this.count, len);
+        this.count += len;
+
+        if (this.count >= this.threshold) {
+            // Only whole lines, the rest of the last line is likely on its way.
+            this.flushLocked(this.lineBoundary());
+            if (this.buffer.length > 2 * this.threshold && this.count < this.threshold)
+                this.buffer = Arrays.copyOf(this.buffer, this.threshold);
+        }
+
+        if (this.count > 0 && this.scheduledFlush == null)
+            this.scheduledFlush = this.flusher.schedule(this::flushDeadline, this.deadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void truncate(OutputStream target, byte[] b, int off, int len) {
+        this.truncated = true;
+        this.truncatedBytes += len;
+        if (this.tailSize <= 0 || len <= 0)
+            return;
+
+        if (this.tail == null)
+            this.tail = new byte[this.tailSize];
+
+        if (len >= this.tailSize) {
+            off += len - this.tailSize;
+            len = this.tailSize;
+            this.tailRuns.clear();
+        }
+
+        int first = Math.min(len, this.tailSize - this.tailEnd);
+        System.arraycopy(b, off, this.tail, this.tailEnd, first);
+        System.arraycopy(b, off + first, this.tail, 0, len - first);
+        this.tailEnd = (this.tailEnd + len) % this.tailSize;
+        this.tailWritten += len;
+
+        Run last = this.tailRuns.peekLast();
+        if (last != null && last.target == target)
+            last.length += len;
+        else
+            this.tailRuns.addLast(new Run(target, len));
+
+        // Forget the runs that were overwritten.
+        int kept = (int) Math.min(this.tailWritten, this.tailSize);
+        int total = 0;
+        for (Run run : this.tailRuns)
+            total += run.length;
+        while (total > kept) {
+            Run oldest = this.tailRuns.peekFirst();
+            int overwritten = Math.min(oldest.length, total - kept);
+            oldest.length -= overwritten;
+            total -= overwritten;
+            if (oldest.length == 0)
+                this.tailRuns.removeFirst();
+        }
+    }
+
+    private void passOnTail() {
+        if (!this.truncated)
+            return;
+
+        int kept = (int) Math.min(this.tailWritten, this.tail == null ? 0 : this.tailSize);
+        byte[] tail = new byte[kept];
+        if (kept > 0) {
+            int start = this.tailWritten < this.tailSize ? 0 : this.tailEnd;
+            int first = Math.min(kept, this.tailSize - start);
+            System.arraycopy(this.tail, start, tail, 0, first);
+            System.arraycopy(this.tail, 0, tail, first, kept - first);
+        }
+
+        // Don't start in the middle of a character.
+        int skip = 0;
+        while (skip < kept && skip < 3 && (tail[skip] & 0xC0) == 0x80)
+            skip++;
+
+        this.detachedErr.print(String.format("%n... output truncated after %d bytes, %d bytes were dropped%s ...%n",
+                this.cellLimit, this.truncatedBytes - kept + skip,
+                kept - skip > 0 ? String.format(", showing the last %d", kept - skip) : ""));
+        this.detachedErr.flush();
+
+        int off = 0;
+        for (Run run : this.tailRuns) {
+            int from = Math.max(off, skip);
+            try {
+                if (off + run.length > from) {
+                    run.target.write(tail, from, off + run.length - from);
+                    run.target.flush();
+                }
+            } catch (IOException e) {
+                // The target is closed, there is nowhere to put the output.
+            }
+            off += run.length;
+        }
+
+        this.tailRuns.clear();
+        this.tailEnd = 0;
+        this.tailWritten = 0;
+        this.truncatedBytes = 0;
+        this.truncated = false;
+    }
+
+    private void flushDeadline() {
+        // A buffer that is being drained by its own thread may be waiting on the rate limit, the
+        // rest of the output is still passed on in the meantime and it is tried again next time.
+        this.drainThreadBuffers(false);
+        synchronized (this.lock) {
+            this.scheduledFlush = null;
+            try {
+                this.flushLocked(this.charBoundary(this.count));
+            } catch (IOException e) {
+                // The target is closed, there is nowhere to put the output.
+            }
+
+            if (this.count > 0 || !this.pendingThreadBuffers.isEmpty())
+                this.scheduledFlush = this.flusher.schedule(this::flushDeadline, this.deadlineMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduleDeadline() {
+        synchronized (this.lock) {
+            if (this.scheduledFlush == null)
+                this.scheduledFlush = this.flusher.schedule(this::flushDeadline, this.deadlineMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param wait if a buffer that is being drained by another thread should be waited for rather
+     *             than left for later.
+     */
+    private void drainThreadBuffers(boolean wait) {
+        ThreadBuffer buffer;
+        int remaining = this.pendingThreadBuffers.size();
+        // Only drain what is pending now, a thread printing constantly would otherwise keep this going.
+        while (remaining-- > 0 && (buffer = this.pendingThreadBuffers.poll()) != null) {
+            try {
+                buffer.drain(false, wait);
+            } catch (IOException e) {
+                // The target is closed, there is nowhere to put the output.
+            }
+            if (buffer.requeue())
+                this.pendingThreadBuffers.add(buffer);
+        }
+    }
+
+    private void flushLocked(int end) throws IOException {
+        if (end <= 0)
+            return;
+
+        OutputStream target = this.bufferedFor;
+        int remaining = this.count - end;
+        try {
+            target.write(this.buffer, 0, end);
+            target.flush();
+        } finally {
+            System.arraycopy(this.buffer, end, this.buffer, 0, remaining);
+            this.count = remaining;
+        }
+    }
+
+    private int lineBoundary() {
+        int end = lineBoundary(this.buffer, this.count);
+        return end > 0 ? end : this.charBoundary(this.count);
+    }
+
+    private int charBoundary(int end) {
+        return this.charBoundary(this.buffer, 0, end);
+    }
+
+    /**
+     * Find the end of the last complete UTF-8 encoded character in the first {@code len} bytes
+     * from {@code off} so that a character is never split between two writes.
+     *
+     * @return the number of bytes up to that end.
+     */
+    private int charBoundary(byte[] b, int off, int len) {
+        int i = len - 1;
+        while (i >= 0 && len - i < 4 && (b[off + i] & 0xC0) == 0x80)
+            i--;
+        if (i < 0)
+            return len;
+
+        int lead = b[off + i] & 0xFF;
+        int length = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+        return len - i < length ? i : len;
+    }
+
+    /**
+     * The output of a single thread that has not been passed on yet. Only the owning thread
+     * appends to it but any thread may drain it. Draining holds the {@code drainLock} while
+     * writing to the coalescer so that the drained chunks stay in order, and it must never be
+     * taken while holding the coalescer's lock. The write may wait on the rate limit with the
+     * {@code drainLock} held, so the deadline flush skips buffers it can't lock right away.
+     */
+    private class ThreadBuffer {
+        private final ReentrantLock drainLock = new ReentrantLock();
+        private byte[] bytes = new byte[256];
+        private int count = 0;
+        private OutputStream target = null;
+        // If the buffer is in the pending queue. It stays there while its thread keeps writing, even
+        // if that thread drains it, so that a write only adds it when a drain took it out.
+        private boolean queued = false;
+
+        private void write(OutputStream target, byte[] b, int off, int len) throws IOException {
+            // Only the owning thread changes the target so it can be read without the lock.
+            if (this.target != target)
+                this.drain(false, true);
+
+            boolean schedule;
+            boolean full;
+            synchronized (this) {
+                this.target = target;
+                if (this.count + len > this.bytes.length)
+                    this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.count + len));
+                System.arraycopy(b, off, this.bytes, this.count, len);
+                this.count += len;
+
+                schedule = !this.queued;
+                this.queued = true;
+                full = this.count >= THREAD_BUFFER_THRESHOLD;
+            }
+
+            if (schedule) {
+                OutputCoalescer.this.pendingThreadBuffers.add(this);
+                OutputCoalescer.this.scheduleDeadline();
+            }
+
+            if (full)
+                this.drain(true, true);
+        }
+
+        /**
+         * Pass on the buffered bytes to the coalescer.
+         *
+         * @param wholeLines if only whole lines should be passed on, unless there are none.
+         * @param wait       if another thread draining this buffer should be waited for, otherwise
+         *                   nothing is drained.
+         */
+        private void drain(boolean wholeLines, boolean wait) throws IOException {
+            if (wait) {
+                this.drainLock.lock();
+            } else if (!this.drainLock.tryLock()) {
+                return;
+            }
+
+            try {
+                byte[] drained;
+                OutputStream target;
+                synchronized (this) {
+                    int end = wholeLines ? lineBoundary(this.bytes, this.count) : 0;
+                    if (end == 0)
+                        end = charBoundary(this.bytes, 0, this.count);
+
+                    drained = Arrays.copyOf(this.bytes, end);
+                    target = this.target;
+                    System.arraycopy(this.bytes, end, this.bytes, 0, this.count - end);
+                    this.count -= end;
+                    if (this.bytes.length > 2 * THREAD_BUFFER_THRESHOLD && this.count < THREAD_BUFFER_THRESHOLD)
+                        this.bytes = Arrays.copyOf(this.bytes, THREAD_BUFFER_THRESHOLD);
+                }
+
+                if (drained.length > 0)
+                    OutputCoalescer.this.write(target, drained, 0, drained.length);
+            } finally {
+                this.drainLock.unlock();
+            }
+        }
+
+        /**
+         * Decide if a buffer that was taken out of the pending queue goes back in. Deciding under the
+         * same lock as {@link #write(OutputStream, byte[], int, int)} means a write either sees it queued
+         * and its bytes are kept, or sees it out and adds it again.
+         *
+         * @return true if some bytes are still buffered and the buffer must be added to the queue again.
+         */
+        private synchronized boolean requeue() {
+            this.queued = this.count > 0;
+            return this.queued;
+        }
+    }
+
+    private static int lineBoundary(byte[] b, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (b[i] == '\n')
+                return i + 1;
+        }
+        return 0;
+    }
+
+    private class ThreadBufferedPrintStream extends PrintStream {
+        private final OutputStream target;
+
+        private ThreadBufferedPrintStream(OutputStream target) throws UnsupportedEncodingException {
+            super(OutputCoalescer.this.coalesce(target), false, StandardCharsets.UTF_8.name());
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) {
+            this.write(new byte[]{ (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            try {
+                OutputCoalescer.this.threadBuffers.get().write(this.target, b, off, len);
+            } catch (InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                super.setError();
+            }
+        }
+
+        private void write(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            this.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void print(boolean b) {
+            this.write(String.valueOf(b));
+        }
+
+        @Override
+        public void print(char c) {
+            this.write(String.valueOf(c));
+        }
+
+        @Override
+        public void print(int i) {
+            this.write(String.valueOf(i));
+        }
+
+        @Override
+        public void print(long l) {
+            this.write(String.valueOf(l));
+        }
+
+        @Override
+        public void print(float f) {
+            this.write(String.valueOf(f));
+        }
+
+        @Override
+        public void print(double d) {
+            this.write(String.valueOf(d));
+        }
+
+        @Override
+        public void print(char[] s) {
+            this.write(new String(s));
+        }
+
+        @Override
+        public void print(String s) {
+            this.write(String.valueOf(s));
+        }
+
+        @Override
+        public void print(Object obj) {
+            this.write(String.valueOf(obj));
+        }
+
+        // Each line is written at once so that it isn't split by a drain from another thread.
+
+        @Override
+        public void println() {
+            this.write(System.lineSeparator());
+        }
+
+        @Override
+        public void println(boolean x) {
+            this.write(x + System.lineSeparator());
+        }
+
+        @Override
+        public void println(char x) {
+            this.write(x + System.lineSeparator());
+        }
+
+        @Override
+        public void println(int x) {
+            this.write(x + System.lineSeparator());
+        }
+
+        @Override
+        public void println(long x) {
+            this.write(x + System.lineSeparator());
+        }
+
+        @Override
+        public void println(float x) {
+            this.write(x + System.lineSeparator());
+        }
+
+        @Override
+        public void println(double x) {
+            this.write(x + System.lineSeparator());
+        }
+
+        @Override
+        public void println(char[] x) {
+            this.write(new String(x) + System.lineSeparator());
+        }
+
+        @Override
+        public void println(String x) {
+            this.write(x + System.lineSeparator());
+        }
+
+        @Override
+        public void println(Object x) {
+            this.write(String.valueOf(x) + System.lineSeparator());
+        }
+
+        @Override
+        public PrintStream format(String format, Object... args) {
+            this.write(String.format(format, args));
+            return this;
+        }
+
+        @Override
+        public PrintStream format(Locale l, String format, Object... args) {
+            this.write(String.format(l, format, args));
+            return this;
+        }
+
+        @Override
+        public void flush() {
+            // Passed on within the deadline, see the class documentation.
+        }
+
+        @Override
+        public void close() {
+            OutputCoalescer.this.flush();
+        }
+    }
+
+    private static class Run {
+        private final OutputStream target;
+        private int length;
+
+        private Run(OutputStream target, int length) {
+            this.target = target;
+            this.length = length;
+        }
+    }
+
+    private class CoalescedStream extends OutputStream {
+        private final OutputStream target;
+
+        private CoalescedStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{ (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            OutputCoalescer.this.write(this.target, b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            // Passed on within the deadline, see the class documentation.
+        }
+
+        @Override
+        public void close() {
+            OutputCoalescer.this.flush();
+        }
+    }
+}
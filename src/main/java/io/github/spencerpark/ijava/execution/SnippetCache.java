@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import jdk.jshell.JShell;
+import jdk.jshell.Snippet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the imports and methods that were successfully evaluated so that evaluating the
+ * exact same source again can be skipped. This is the common case when re-running a notebook:
+ * none of the declarations changed but each would still be compiled again.
+ * <p>
+ * A remembered snippet is only reused while the shell still considers it {@link
+ * Snippet.Status#VALID valid}. The shell updates the status of a declaration when something it
+ * depends on is redeclared, when it is overwritten, or when it is dropped, so the status
+ * accounts for the declarations that came before it. Variable declarations are never cached
+ * because evaluating their initializer has side effects. Type declarations aren't either as
+ * re-running a class declaration is expected to reset its static state. The cache is cleared
+ * whenever the classpath changes.
+ */
+public class SnippetCache {
+    private final Map<String, Snippet> declarations = new HashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private static boolean isCacheable(Snippet snippet) {
+        switch (snippet.kind()) {
+            case IMPORT:
+            case METHOD:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Check if the {@code source} was already evaluated in the {@code shell} and does not need to
+     * be evaluated again.
+     *
+     * @param shell  the shell that the source would be evaluated in.
+     * @param source the source of a single snippet.
+     *
+     * @return true if evaluating the source may be skipped, false if it needs to be evaluated.
+     */
+    public boolean isUpToDate(JShell shell, String source) {
+        Snippet snippet = this.declarations.get(source);
+        if (snippet == null)
+            return false;
+
+        if (shell.status(snippet) != Snippet.Status.VALID) {
+            this.declarations.remove(source);
+            return false;
+        }
+
+        this.hits++;
+        return true;
+    }
+
+    /**
+     * Record the result of evaluating {@code source}. Only valid declarations are remembered.
+     *
+     * @param shell   the shell that the source was evaluated in.
+     * @param source  the source of a single snippet.
+     * @param snippet the snippet that the shell created for the source.
+     */
+    public void evaluated(JShell shell, String source, Snippet snippet) {
+        if (!isCacheable(snippet))
+            return;
+
+        this.misses++;
+
+        if (shell.status(snippet) == Snippet.Status.VALID)
+            this.declarations.put(source, snippet);
+        else
+            this.declarations.remove(source);
+    }
+
+    public void clear() {
+        this.declarations.clear();
+    }
+
+    public int size() {
+        return this.declarations.size();
+    }
+
+    /**
+     * @return the number of evaluations that were skipped.
+     */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of declarations that had to be compiled.
+     */
+    public long getMisses() {
+        return this.misses;
+    }
+
+    @Override
+    public String toString() {
+        return "SnippetCache{" +
+                "size=" + this.declarations.size() +
+                ", hits=" + this.hits +
+                ", misses=" + this.misses +
+                '}';
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.execution;
+
+import jdk.jshell.JShell;
+import jdk.jshell.Snippet;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A compiled form of the startup scripts that is saved so that later kernels don't have to
+ * compile them again. The shell compiles each declaration in a script on its own which adds
+ * up when a script declares many helper methods.
+ * <p>
+ * After the startup scripts are evaluated the methods and classes they declared are collected
+ * into a single class and compiled at once, as static members. Restoring the snapshot adds
+ * that class to the classpath and only evaluates the imports, a static import of the class and
+ * the statements and variable declarations from the scripts, in the order they appeared. A
+ * snapshot is not created if the declarations don't compile on their own, for example when a
+ * method uses a variable declared by a script.
+ * <p>
+ * Snapshots are keyed by the scripts, the compiler options, the classpath and the java
+ * version, so changing any of them simply creates a new snapshot.
+ */
+public class StartupSnapshot {
+    /**
+     * The shell compiles snippets into this package. Putting the snapshot in the same package,
+     * and the same class loader as it is added to the shell's classpath, keeps package private
+     * members of the scripts' classes accessible to the notebook.
+     */
+    private static final String PACKAGE = "REPL";
+    private static final String CLASS_NAME = "IJavaStartupSnapshot";
+
+    private static final String CLASSES_DIR = "classes";
+    private static final String REPLAY_FILE = "replay.jshell";
+    private static final String UNSUPPORTED_FILE = "unsupported.txt";
+
+    private static final Set<String> MEMBER_MODIFIERS = new HashSet<>(Arrays.asList(
+            "public", "protected", "private", "static", "final", "abstract", "synchronized", "strictfp", "native"
+    ));
+    private static final Set<String> DROPPED_MODIFIERS = new HashSet<>(Arrays.asList(
+            "public", "protected", "private", "static"
+    ));
+
+    /**
+     * A snapshot loaded from disk.
+     */
+    public static class Restore {
+        private final Path classes;
+        private final String replay;
+
+        private Restore(Path classes, String replay) {
+            this.classes = classes;
+            this.replay = replay;
+        }
+
+        /**
+         * @return the directory with the compiled declarations to add to the classpath.
+         */
+        public Path getClasses() {
+            return this.classes;
+        }
+
+        /**
+         * @return the code to evaluate in place of the startup scripts after the classes are
+         *         on the classpath.
+         */
+        public String getReplay() {
+            return this.replay;
+        }
+    }
+
+    private final Path directory;
+    private final List<String> classpath;
+    private final List<String> compilerOpts;
+
+    private StartupSnapshot(Path directory, List<String> classpath, List<String> compilerOpts) {
+        this.directory = directory;
+        this.classpath = classpath;
+        this.compilerOpts = compilerOpts;
+    }
+
+    /**
+     * @param root         the directory that the snapshots are saved in.
+     * @param scripts      the startup scripts, in the order they are evaluated.
+     * @param classpath    the classpath entries added to the shell.
+     * @param compilerOpts the options the shell compiles with.
+     *
+     * @return the snapshot for this configuration, which may not have been saved yet.
+     */
+    public static StartupSnapshot forScripts(Path root, List<String> scripts, List<String> classpath, List<String> compilerOpts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM.", e);
+        }
+
+        List<String> keyParts = new ArrayList<>();
+        keyParts.add(Runtime.version().toString());
+        keyParts.add(System.getProperty("java.class.path", ""));
+        keyParts.addAll(classpath);
+        keyParts.add("");
+        keyParts.addAll(compilerOpts);
+        keyParts.add("");
+        keyParts.addAll(scripts);
+        for (String part : keyParts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            // Separate the parts so that moving text from one to the next changes the key.
+            digest.update((byte) 0);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b));
+
+        return new StartupSnapshot(root.resolve(key.toString()), classpath, compilerOpts);
+    }
+
+    /**
+     * @return true if there is nothing to save, either because the snapshot was already saved or
+     *         because the scripts can't be saved as a snapshot.
+     */
+    public boolean isSaved() {
+        return Files.isDirectory(this.directory);
+    }
+
+    /**
+     * @return the saved snapshot or {@code null} if there is none.
+     */
+    public Restore load() {
+        Path replay = this.directory.resolve(REPLAY_FILE);
+        if (!Files.isRegularFile(replay))
+            return null;
+
+        try {
+            return new Restore(this.directory.resolve(CLASSES_DIR), new String(Files.readAllBytes(replay), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Delete the snapshot, for example because restoring it failed. It is created again the next
+     * time the startup scripts are evaluated.
+     */
+    public void invalidate() {
+        try {
+            StartupSnapshot.deleteRecursively(this.directory);
+        } catch (IOException e) {
+            // Restoring it will fail again and the next attempt will try to delete it again.
+        }
+    }
+
+    /**
+     * Describe the snippets of the startup scripts so that they can be {@link #save(List) saved} later.
+     * This must be called right after the startup scripts are evaluated, by the thread that
+     * evaluated them.
+     *
+     * @param shell the shell that evaluated the startup scripts.
+     *
+     * @return the sources of the snippets in the shell, grouped by how they are saved.
+     */
+    public static Plan plan(JShell shell) {
+        Plan plan = new Plan();
+        shell.snippets().forEach(snippet -> {
+            switch (snippet.kind()) {
+                case IMPORT:
+                    if (shell.status(snippet) == Snippet.Status.VALID)
+                        plan.imports.add(snippet.source().trim());
+                    break;
+                case METHOD:
+                case TYPE_DECL:
+                    if (shell.status(snippet) == Snippet.Status.VALID)
+                        plan.members.add(snippet.source());
+                    break;
+                case VAR:
+                case EXPRESSION:
+                case STATEMENT:
+                    plan.replay.add(snippet.source());
+                    break;
+                default:
+                    // Erroneous snippets failed the first time and would fail again.
+                    break;
+            }
+        });
+        return plan;
+    }
+
+    /**
+     * The snippets of the startup scripts grouped by how they are saved.
+     */
+    public static class Plan {
+        private final List<String> imports = new ArrayList<>();
+        private final List<String> members = new ArrayList<>();
+        private final List<String> replay = new ArrayList<>();
+
+        private Plan() { }
+
+        /**
+         * @return true if the scripts declared anything that a snapshot would save compiling.
+         */
+        public boolean hasMembers() {
+            return !this.members.isEmpty();
+        }
+    }
+
+    /**
+     * Compile the declarations in the plan and save them along with the rest of the plan. The
+     * compilation doesn't use the shell so this may be called from any thread. If the
+     * declarations can't be compiled on their own the reason is saved instead so that it isn't
+     * attempted again.
+     *
+     * @param plan the result of {@link #plan(JShell)}.
+     *
+     * @throws IOException if the snapshot can't be written.
+     */
+    public void save(Plan plan) throws IOException {
+        if (this.isSaved() || !plan.hasMembers())
+            return;
+
+        Files.createDirectories(this.directory.getParent());
+        Path staging = Files.createTempDirectory(this.directory.getParent(), this.directory.getFileName() + ".");
+        try {
+            Path classes = Files.createDirectory(staging.resolve(CLASSES_DIR));
+            String failure = this.compile(StartupSnapshot.generateSource(plan), classes);
+
+            if (failure != null) {
+                StartupSnapshot.deleteRecursively(classes);
+                Files.write(staging.resolve(UNSUPPORTED_FILE), failure.getBytes(StandardCharsets.UTF_8));
+            } else {
+                StringBuilder replay = new StringBuilder();
+                for (String imp : plan.imports)
+                    replay.append(imp).append('\n');
+                replay.append("import static ").append(PACKAGE).append('.').append(CLASS_NAME).append(".*;\n");
+                for (String source : plan.replay)
+                    replay.append(source).append('\n');
+
+                Files.write(staging.resolve(REPLAY_FILE), replay.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            try {
+                Files.move(staging, this.directory, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Fine if another kernel saved the same snapshot first.
+                if (!this.isSaved()) throw e;
+            }
+        } finally {
+            StartupSnapshot.deleteRecursively(staging);
+        }
+    }
+
+    private String compile(String source, Path output) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return "No java compiler is available.";
+
+        List<String> classpath = new ArrayList<>();
+        classpath.add(System.getProperty("java.class.path", ""));
+        classpath.addAll(this.classpath);
+
+        List<String> options = new ArrayList<>(this.compilerOpts);
+        options.add("-classpath");
+        options.add(String.join(File.pathSeparator, classpath));
+        options.add("-d");
+        options.add(output.toString());
+
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + PACKAGE.replace('.', '/') + "/" + CLASS_NAME + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        boolean success = compiler.getTask(null, null, diagnostics, options, null, Collections.singletonList(file)).call();
+        if (success)
+            return null;
+
+        return diagnostics.getDiagnostics().stream()
+                .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .map(d -> String.format("%d:%d: %s", d.getLineNumber(), d.getColumnNumber(), d.getMessage(Locale.ROOT)))
+                .collect(Collectors.joining("\n", source + "\n\n", "\n"));
+    }
+
+    static String generateSource(Plan plan) {
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(PACKAGE).append(";\n\n");
+        for (String imp : plan.imports)
+            source.append(imp).append('\n');
+
+        source.append("\npublic final class ").append(CLASS_NAME).append(" {\n");
+        source.append("private ").append(CLASS_NAME).append("() { }\n\n");
+        for (String member : plan.members)
+            source.append(StartupSnapshot.asStaticMember(member)).append("\n\n");
+        source.append("}\n");
+
+        return source.toString();
+    }
+
+    /**
+     * Rewrite the modifiers of a top level declaration from a script so that it is a public
+     * static member of the snapshot class. Access modifiers and {@code static} are ignored on top
+     * level declarations by the shell so they are dropped before adding {@code public static}.
+     */
+    static String asStaticMember(String declaration) {
+        int i = StartupSnapshot.skipCommentsAndAnnotations(declaration, 0);
+        String prefix = declaration.substring(0, i);
+
+        StringBuilder modifiers = new StringBuilder("public static ");
+        while (true) {
+            int end = i;
+            while (end < declaration.length() && Character.isJavaIdentifierPart(declaration.charAt(end)))
+                end++;
+
+            String word = declaration.substring(i, end);
+            if (!MEMBER_MODIFIERS.contains(word))
+                break;
+
+            if (!DROPPED_MODIFIERS.contains(word))
+                modifiers.append(word).append(' ');
+
+            i = StartupSnapshot.skipCommentsAndAnnotations(declaration, end);
+        }
+
+        return prefix + modifiers + declaration.substring(i);
+    }
+
+    private static int skipCommentsAndAnnotations(String source, int i) {
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (source.startsWith("//", i)) {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? source.length() : end + 1;
+            } else if (source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? source.length() : end + 2;
+            } else if (c == '@' && !source.startsWith("@interface", i)) {
+                i++;
+                while (i < source.length() && (Character.isJavaIdentifierPart(source.charAt(i)) || source.charAt(i) == '.'))
+                    i++;
+                i = StartupSnapshot.skipParenthesized(source, StartupSnapshot.skipWhitespace(source, i));
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(String source, int i) {
+        while (i < source.length() && Character.isWhitespace(source.charAt(i)))
+            i++;
+        return i;
+    }
+
+    private static int skipParenthesized(String source, int i) {
+        if (i >= source.length() || source.charAt(i) != '(')
+            return i;
+
+        int depth = 0;
+        for (; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                // Skip string and char literals which may contain parentheses.
+                for (i++; i < source.length() && source.charAt(i) != c; i++)
+                    if (source.charAt(i) == '\\') i++;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return i;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path))
+            return;
+
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.deleteIfExists(p);
+        }
+    }
+}
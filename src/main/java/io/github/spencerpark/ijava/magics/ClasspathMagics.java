@@ -4,15 +4,16 @@ import io.github.spencerpark.jupyter.kernel.magic.registry.LineMagic;
 import io.github.spencerpark.jupyter.kernel.util.GlobFinder;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 public class ClasspathMagics {
-    private final Consumer<String> addToClasspath;
+    private final Consumer<Collection<String>> addToClasspath;
 
-    public ClasspathMagics(Consumer<String> addToClasspath) {
+    public ClasspathMagics(Consumer<Collection<String>> addToClasspath) {
         this.addToClasspath = addToClasspath;
     }
 
@@ -30,7 +31,7 @@ public class ClasspathMagics {
                 .map(p -> p.toAbsolutePath().toString())
                 .collect(Collectors.toList());
 
-        jars.forEach(this.addToClasspath);
+        this.addToClasspath.accept(jars);
 
         return jars;
     }
@@ -49,7 +50,7 @@ public class ClasspathMagics {
                 .map(p -> p.toAbsolutePath().toString())
                 .collect(Collectors.toList());
 
-        paths.forEach(this.addToClasspath);
+        this.addToClasspath.accept(paths);
 
         return paths;
     }
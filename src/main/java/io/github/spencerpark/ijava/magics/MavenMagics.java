@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.magics;
+
+import io.github.spencerpark.jupyter.kernel.magic.registry.CellMagic;
+import io.github.spencerpark.jupyter.kernel.magic.registry.LineMagic;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The maven magics, backed by a {@link MavenResolver} that is only created the first time one of
+ * them is used. Creating a resolver loads ivy and the maven model builder and reads the maven
+ * settings to find the local repository, which is wasted startup time for the many notebooks
+ * that never add a dependency.
+ * <p>
+ * Nothing in the signatures of this class refers to ivy or maven so registering the magics does
+ * not load them either.
+ */
+public class MavenMagics {
+    private final Supplier<MavenResolver> resolverFactory;
+    private volatile MavenResolver resolver;
+
+    /**
+     * @param resolverFactory creates and configures the resolver when it is first needed.
+     */
+    public MavenMagics(Supplier<MavenResolver> resolverFactory) {
+        this.resolverFactory = resolverFactory;
+    }
+
+    /**
+     * Get the resolver, creating it if this is the first time it is needed.
+     *
+     * @return the resolver backing the magics.
+     */
+    public MavenResolver getResolver() {
+        MavenResolver resolver = this.resolver;
+        if (resolver != null)
+            return resolver;
+
+        synchronized (this) {
+            if (this.resolver == null)
+                this.resolver = this.resolverFactory.get();
+            return this.resolver;
+        }
+    }
+
+    /**
+     * @return true if the resolver was created, i.e. one of the magics was used.
+     */
+    public boolean isInitialized() {
+        return this.resolver != null;
+    }
+
+    /**
+     * @see MavenResolver#applyResolvedDependencies()
+     */
+    public void applyResolvedDependencies() {
+        MavenResolver resolver = this.resolver;
+        if (resolver != null)
+            resolver.applyResolvedDependencies();
+    }
+
+    /**
+     * @see MavenResolver#awaitPendingResolutions()
+     */
+    public boolean awaitPendingResolutions() {
+        MavenResolver resolver = this.resolver;
+        return resolver != null && resolver.awaitPendingResolutions();
+    }
+
+    @LineMagic(aliases = { "addMavenDependency", "maven" })
+    public void addMavenDependencies(List<String> args) {
+        this.getResolver().addMavenDependencies(args);
+    }
+
+    @LineMagic(aliases = { "mavenRepo" })
+    public void addMavenRepo(List<String> args) {
+        this.getResolver().addMavenRepo(args);
+    }
+
+    @CellMagic
+    public void loadFromPOM(List<String> args, String body) throws Exception {
+        this.getResolver().loadFromPOM(args, body);
+    }
+
+    @LineMagic
+    public void loadFromPOM(List<String> args) {
+        this.getResolver().loadFromPOM(args);
+    }
+}
@@ -23,29 +23,49 @@
  */
 package io.github.spencerpark.ijava.magics;
 
+import io.github.spencerpark.ijava.execution.EvaluationStats;
 import io.github.spencerpark.ijava.magics.dependencies.CommonRepositories;
 import io.github.spencerpark.ijava.magics.dependencies.Maven;
 import io.github.spencerpark.ijava.magics.dependencies.MavenToIvy;
-import io.github.spencerpark.jupyter.kernel.magic.registry.CellMagic;
-import io.github.spencerpark.jupyter.kernel.magic.registry.LineMagic;
+import io.github.spencerpark.ijava.magics.dependencies.ResolutionCache;
+import io.github.spencerpark.ijava.magics.dependencies.UpdatePolicy;
+import io.github.spencerpark.ijava.magics.dependencies.UpdateStatus;
+import io.github.spencerpark.jupyter.kernel.DisplayStream;
+import io.github.spencerpark.jupyter.kernel.display.DisplayData;
 import io.github.spencerpark.jupyter.kernel.magic.registry.MagicsArgs;
 import org.apache.ivy.Ivy;
+import org.apache.ivy.core.cache.DefaultRepositoryCacheManager;
+import org.apache.ivy.core.cache.RepositoryCacheManager;
+import org.apache.ivy.core.module.descriptor.Artifact;
+import org.apache.ivy.core.module.descriptor.Configuration;
+import org.apache.ivy.core.module.descriptor.DefaultArtifact;
+import org.apache.ivy.core.module.descriptor.DefaultDependencyArtifactDescriptor;
+import org.apache.ivy.core.module.descriptor.DefaultDependencyDescriptor;
 import org.apache.ivy.core.module.descriptor.DefaultModuleDescriptor;
 import org.apache.ivy.core.module.descriptor.ModuleDescriptor;
 import org.apache.ivy.core.module.id.ModuleRevisionId;
 import org.apache.ivy.core.report.ArtifactDownloadReport;
+import org.apache.ivy.core.report.DownloadReport;
+import org.apache.ivy.core.report.DownloadStatus;
 import org.apache.ivy.core.report.ResolveReport;
+import org.apache.ivy.core.resolve.DownloadOptions;
+import org.apache.ivy.core.resolve.IvyNode;
 import org.apache.ivy.core.resolve.ResolveOptions;
 import org.apache.ivy.core.settings.IvySettings;
+import org.apache.ivy.plugins.matcher.PatternMatcher;
 import org.apache.ivy.plugins.parser.m2.PomModuleDescriptorParser;
-import org.apache.ivy.plugins.repository.url.URLResource;
+import org.apache.ivy.plugins.resolver.AbstractResolver;
 import org.apache.ivy.plugins.resolver.ChainResolver;
 import org.apache.ivy.plugins.resolver.DependencyResolver;
+import org.apache.ivy.plugins.resolver.IBiblioResolver;
 import org.apache.ivy.util.DefaultMessageLogger;
 import org.apache.ivy.util.Message;
 import org.apache.ivy.util.MessageLogger;
+import org.apache.ivy.util.filter.Filter;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.building.ModelBuildingException;
+import org.apache.maven.model.building.ModelBuildingResult;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -60,10 +80,18 @@ import javax.xml.transform.stream.StreamResult;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -96,6 +124,30 @@ public class MavenResolver {
      */
     private static final String JAVADOC_TYPE = "javadoc";
 
+    /**
+     * The most artifacts to download at the same time. Downloads are mostly spent waiting on
+     * the network so a few at once hides the latency without flooding the repositories.
+     */
+    private static final int MAX_PARALLEL_DOWNLOADS = 4;
+
+    /**
+     * The revisions that may change without their version changing and so are checked for updates
+     * along with the rest of a repository.
+     */
+    private static final String SNAPSHOT_PATTERN = ".*-SNAPSHOT";
+
+    /**
+     * The most parsed POMs to keep around for when the same POM is loaded again.
+     */
+    private static final int POM_CACHE_SIZE = 32;
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+    static {
+        DOCUMENT_BUILDER_FACTORY.setValidating(false);
+    }
+
     private static final Pattern IVY_MRID_PATTERN = Pattern.compile(
             "^(?<organization>[-\\w/._+=]*)#(?<name>[-\\w/._+=]+)(?:#(?<branch>[-\\w/._+=]+))?;(?<revision>[-\\w/._+=,\\[\\]{}():@]+)$"
     );
@@ -103,21 +155,101 @@ public class MavenResolver {
             "^(?<group>[^:\\s]+):(?<artifact>[^:\\s]+)(?::(?<packaging>[^:\\s]*)(?::(?<classifier>[^:\\s]+))?)?:(?<version>[^:\\s]+)$"
     );
 
-    private final Consumer<String> addToClasspath;
+    private final Consumer<Collection<String>> addToClasspath;
     private final List<DependencyResolver> repos;
+    private final ResolutionCache resolutionCache;
+    private final Map<String, ParsedPom> parsedPoms = new LinkedHashMap<String, ParsedPom>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ParsedPom> eldest) {
+            return this.size() > POM_CACHE_SIZE;
+        }
+    };
+    private final ExecutorService downloadExecutor = MavenResolver.newDaemonPool(MAX_PARALLEL_DOWNLOADS, "IJava-maven-download");
+    // Sources are downloaded separately so that they never hold up the jars of a later resolution.
+    private final ExecutorService sourcesExecutor = MavenResolver.newDaemonPool(1, "IJava-maven-sources");
+
+    // Background resolutions run one at a time, in the order they were started.
+    private final ExecutorService asyncExecutor = MavenResolver.newDaemonPool(1, "IJava-maven-async");
+    private final List<AsyncResolution> asyncResolutions = new LinkedList<>();
+    private DisplayStream progressDisplay;
+    private volatile Consumer<File> addSourceJar;
+
+    // Magics change the repositories and policies while background resolutions may be reading them.
+    private final Map<String, UpdatePolicy> updatePolicies;
+    private volatile UpdatePolicy defaultUpdatePolicy = UpdatePolicy.DAILY;
+    private volatile boolean offline = false;
+
+    public MavenResolver(Consumer<Collection<String>> addToClasspath) {
+        this(addToClasspath, null);
+    }
 
-    public MavenResolver(Consumer<String> addToClasspath) {
+    /**
+     * @param addToClasspath a callback for adding a batch of resolved jars to the classpath.
+     * @param lockfile       a file to save resolved dependencies in so that later kernels can reuse
+     *                       them without consulting any repositories. May be {@code null} to only
+     *                       remember them for the lifetime of this resolver.
+     */
+    public MavenResolver(Consumer<Collection<String>> addToClasspath, Path lockfile) {
         this.addToClasspath = addToClasspath;
-        this.repos = new LinkedList<>();
+        this.resolutionCache = new ResolutionCache(lockfile);
+        this.repos = new CopyOnWriteArrayList<>();
         this.repos.add(CommonRepositories.mavenCentral());
         this.repos.add(CommonRepositories.mavenLocal());
+
+        this.updatePolicies = new ConcurrentHashMap<>();
+        // Checking the local repository is cheap and picks up anything installed since the last check.
+        this.updatePolicies.put(CommonRepositories.MAVEN_LOCAL_NAME, UpdatePolicy.ALWAYS);
     }
 
     public void addRemoteRepo(String name, String url) {
+        this.addRemoteRepo(name, url, null);
+    }
+
+    /**
+     * @param name   the name of the repository.
+     * @param url    the root url of the maven repository.
+     * @param policy how often to check the repository for updates to cached artifacts. {@code null} to
+     *               use the {@link #setDefaultUpdatePolicy(UpdatePolicy) default}.
+     */
+    public void addRemoteRepo(String name, String url, UpdatePolicy policy) {
         if (DEFAULT_RESOLVER_NAME.equals(name))
             throw new IllegalArgumentException("Illegal repository name, cannot use '" + DEFAULT_RESOLVER_NAME + "'.");
 
         this.repos.add(CommonRepositories.maven(name, url));
+        if (policy != null)
+            this.setUpdatePolicy(name, policy);
+    }
+
+    public UpdatePolicy getDefaultUpdatePolicy() {
+        return this.defaultUpdatePolicy;
+    }
+
+    /**
+     * Set the update policy for repositories that don't have their own, including those given to
+     * {@code %maven --from}.
+     */
+    public void setDefaultUpdatePolicy(UpdatePolicy policy) {
+        this.defaultUpdatePolicy = Objects.requireNonNull(policy, "policy");
+    }
+
+    public void setUpdatePolicy(String repository, UpdatePolicy policy) {
+        this.updatePolicies.put(repository.toLowerCase(), Objects.requireNonNull(policy, "policy"));
+    }
+
+    public UpdatePolicy getUpdatePolicy(String repository) {
+        return this.updatePolicies.getOrDefault(repository.toLowerCase(), this.defaultUpdatePolicy);
+    }
+
+    public boolean isOffline() {
+        return this.offline;
+    }
+
+    /**
+     * In offline mode dependencies are only resolved from what is cached. Resolving anything that
+     * isn't fails rather than trying to reach a repository.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
     }
 
     private ChainResolver searchAllReposResolver(Set<String> repos) {
@@ -206,106 +338,874 @@ public class MavenResolver {
         return ivy;
     }
 
-    // TODO support multiple at once. This is necessary for conflict resolution with multiple overlapping dependencies.
-    // TODO support classpath resolution
+    private static String describeRepository(DependencyResolver resolver) {
+        // Identify maven repositories by where they are rather than by their name. The local repository
+        // is somewhere different on every machine, but is the same repository as far as a lockfile is concerned.
+        if (resolver instanceof IBiblioResolver && !CommonRepositories.MAVEN_LOCAL_NAME.equals(resolver.getName()))
+            return ((IBiblioResolver) resolver).getRoot();
+        return resolver.getName();
+    }
+
+    /**
+     * Find the locked artifacts in the ivy cache without creating an ivy instance, which takes hundreds of
+     * milliseconds to set up. This mirrors the cache location and layout of the default ivy settings that
+     * every resolution uses.
+     *
+     * @return the files of the artifacts or {@code null} if any of them aren't in the cache.
+     */
+    private static List<File> findLockedInCache(List<ResolutionCache.LockedArtifact> locked) {
+        List<File> files = new ArrayList<>(locked.size());
+        for (ResolutionCache.LockedArtifact artifact : locked) {
+            File file = MavenResolver.cachedArtifact(artifact.getOrganisation(), artifact.getModule(), artifact.getRevision(),
+                    artifact.getName(), artifact.getType(), artifact.getExt(), artifact.getClassifier());
+            if (!file.isFile())
+                return null;
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * @return where the default ivy settings cache an artifact, following {@code [organisation]/[module]/[type]s/[artifact]-[revision](-[classifier]).[ext]}.
+     */
+    private static File cachedArtifact(String organisation, String module, String revision, String name, String type, String ext, String classifier) {
+        String cacheDir = System.getProperty("ivy.cache.dir");
+        if (cacheDir == null) {
+            String ivyHome = System.getProperty("ivy.home");
+            cacheDir = (ivyHome != null ? ivyHome : System.getProperty("user.home") + File.separator + ".ivy2")
+                    + File.separator + "cache";
+        }
+
+        return Paths.get(cacheDir, organisation, module, type + "s",
+                name + "-" + revision + (classifier != null ? "-" + classifier : "") + "." + ext).toFile();
+    }
+
+    /**
+     * Pass the cached sources of the {@code locked} jars on to the {@link #setSourceJarConsumer(Consumer) source jar
+     * consumer}. A resolution that is served from the cache doesn't download anything, including sources.
+     */
+    private void addCachedSources(List<ResolutionCache.LockedArtifact> locked) {
+        Consumer<File> addSourceJar = this.addSourceJar;
+        if (addSourceJar == null)
+            return;
+
+        for (ResolutionCache.LockedArtifact artifact : locked) {
+            if (!JAR_TYPE.equalsIgnoreCase(artifact.getType()) || artifact.getClassifier() != null)
+                continue;
+
+            File sources = MavenResolver.cachedArtifact(artifact.getOrganisation(), artifact.getModule(), artifact.getRevision(),
+                    artifact.getName(), SOURCE_TYPE, "jar", "sources");
+            if (sources.isFile())
+                addSourceJar.accept(sources);
+        }
+    }
+
+    /**
+     * Add the {@code locked} artifacts straight from the cache, if they are all there.
+     *
+     * @return the files of the artifacts or {@code null} if they need to be resolved.
+     */
+    private List<File> useLockedFromCache(ResolutionCache.Key key, List<ResolutionCache.LockedArtifact> locked) {
+        List<File> files = MavenResolver.findLockedInCache(locked);
+        if (files != null) {
+            this.resolutionCache.put(key, locked, files);
+            this.addCachedSources(locked);
+        }
+        return files;
+    }
+
     public List<File> resolveMavenDependency(String canonical, Set<String> repos, int verbosity) throws IOException, ParseException {
+        return this.resolveMavenDependency(canonical, repos, verbosity, false);
+    }
+
+    public List<File> resolveMavenDependency(String canonical, Set<String> repos, int verbosity, boolean refresh) throws IOException, ParseException {
+        return this.resolveMavenDependencies(Collections.singletonList(canonical), repos, verbosity, refresh);
+    }
+
+    public List<File> resolveMavenDependencies(List<String> canonicals, Set<String> repos, int verbosity, boolean refresh) throws IOException, ParseException {
+        return this.resolveMavenDependencies(canonicals, repos, verbosity, refresh, this.offline);
+    }
+
+    /**
+     * Resolve the jars for the coordinates along with their transitive dependencies. All of the
+     * coordinates are resolved together as dependencies of a single module so that the
+     * dependencies they share are only resolved once and conflicting versions are settled on
+     * a single one. The artifacts in the resolved graph are then downloaded concurrently.
+     * <p>
+     * The result is remembered and resolving the same coordinates against the same repositories
+     * again returns it immediately, unless {@code refresh} is set. Otherwise each repository is only
+     * checked for updates to what is already in the ivy cache when its {@link UpdatePolicy} says so.
+     *
+     * @param canonicals the maven or ivy coordinates to resolve.
+     * @param repos      the names or urls of the repositories to search. {@code null} to search all
+     *                   of the configured repositories.
+     * @param verbosity  how much of the resolution to log.
+     * @param refresh    if set, resolve again even if the result is already known and check every
+     *                   repository for updates.
+     * @param offline    if set, only resolve from the ivy cache.
+     *
+     * @return the resolved jars.
+     */
+    // Resolutions are synchronized as the repositories are configured for each one and may be shared with
+    // one running in the background.
+    // TODO support classpath resolution
+    public synchronized List<File> resolveMavenDependencies(List<String> canonicals, Set<String> repos, int verbosity, boolean refresh, boolean offline) throws IOException, ParseException {
+        if (canonicals.isEmpty())
+            return Collections.emptyList();
+
         ChainResolver rootResolver = this.searchAllReposResolver(repos);
 
-        Ivy ivy = this.createDefaultIvyInstance(verbosity);
-        IvySettings settings = ivy.getSettings();
+        // The order that the coordinates are listed in doesn't change the resolved graph.
+        ResolutionCache.Key cacheKey = new ResolutionCache.Key(
+                canonicals.stream().distinct().sorted().collect(Collectors.joining(" ")),
+                rootResolver.getResolvers().stream()
+                        .map(r -> describeRepository(r))
+                        .collect(Collectors.toList()),
+                Arrays.asList(DEFAULT_RESOLVE_CONFS)
+        );
+
+        if (!refresh) {
+            List<File> cached = this.resolutionCache.get(cacheKey);
+            if (cached != null)
+                return cached;
+        }
 
-        settings.addResolver(rootResolver);
-        rootResolver.setCheckmodified(true);
-        settings.setDefaultResolver(rootResolver.getName());
+        List<ResolutionCache.LockedArtifact> locked = refresh ? null : this.resolutionCache.getLocked(cacheKey);
+        if (locked != null) {
+            List<File> cached = this.useLockedFromCache(cacheKey, locked);
+            if (cached != null)
+                return cached;
+        }
+
+        List<ModuleRevisionId> artifactIdentifiers = new ArrayList<>(canonicals.size());
+        for (String canonical : canonicals)
+            artifactIdentifiers.add(MavenResolver.parseCanonicalArtifactName(canonical));
+        List<String> modules = artifactIdentifiers.stream()
+                .map(ModuleRevisionId::toString)
+                .collect(Collectors.toList());
+
+        Ivy ivy = this.createDefaultIvyInstance(verbosity);
+        UpdateStatus updateStatus = new UpdateStatus(ivy.getSettings().getDefaultCache().toPath());
+        long now = System.currentTimeMillis();
 
-        ivy.getLoggerEngine().info("Searching for dependencies in: " + rootResolver.getResolvers());
+        List<String> recording = this.searchWith(ivy, rootResolver, updateStatus, modules, now, refresh, offline);
 
         ResolveOptions resolveOptions = new ResolveOptions();
         resolveOptions.setTransitive(true);
-        resolveOptions.setDownload(true);
-
-        ModuleRevisionId artifactIdentifier = MavenResolver.parseCanonicalArtifactName(canonical);
-        DefaultModuleDescriptor containerModule = DefaultModuleDescriptor.newCallerInstance(
-                artifactIdentifier,
-                DEFAULT_RESOLVE_CONFS,
-                true, // Transitive
-                repos != null // Changing - the resolver will set this based on SNAPSHOT since they are all m2 compatible
-                // but if `repos` is specified, we want to force a lookup.
-        );
+        resolveOptions.setUseCacheOnly(offline);
+
+        List<ArtifactDownloadReport> artifacts;
+        if (locked != null) {
+            resolveOptions.setTransitive(false);
+            artifacts = this.resolveAndDownload(ivy, MavenResolver.newLockedCallerInstance(locked, DEFAULT_RESOLVE_CONFS),
+                    resolveOptions, a -> true, String.join(", ", canonicals));
+        } else {
+            DefaultModuleDescriptor containerModule = MavenResolver.newCallerInstance(
+                    artifactIdentifiers,
+                    DEFAULT_RESOLVE_CONFS,
+                    true, // Transitive
+                    refresh // Changing - the update policy of each repository decides when to look for changes
+                    // but if refreshing, we want to force a lookup.
+            );
 
-        ResolveReport resolved = ivy.resolve(containerModule, resolveOptions);
-        if (resolved.hasError()) {
-            MessageLogger logger = ivy.getLoggerEngine();
-            Arrays.stream(resolved.getAllArtifactsReports())
-                    .forEach(r -> {
-                        logger.error("download " + r.getDownloadStatus() + ": " + r.getArtifact() + " of " + r.getType());
-                        if (r.getArtifactOrigin() == null)
-                            logger.error("\tCouldn't find artifact.");
-                        else
-                            logger.error("\tfrom: " + r.getArtifactOrigin());
-                    });
+            artifacts = this.resolveAndDownload(ivy, containerModule, resolveOptions,
+                    a -> JAR_TYPE.equalsIgnoreCase(a.getType()), String.join(", ", canonicals));
+        }
 
-            // TODO better error...
-            throw new RuntimeException("Error resolving '" + canonical + "'. " + resolved.getAllProblemMessages());
+        this.markChecked(ivy, updateStatus, recording, modules, now);
+        return this.remember(cacheKey, artifacts);
+    }
+
+    /**
+     * A resolution started with {@link #resolveMavenDependenciesAsync(List, Set, int, boolean, boolean)} that
+     * hasn't been added to the classpath yet.
+     */
+    private static class AsyncResolution {
+        private final String description;
+        private final String displayId = UUID.randomUUID().toString();
+        private final long startNanos = System.nanoTime();
+        private Future<List<File>> result;
+
+        private AsyncResolution(String description) {
+            this.description = description;
         }
 
-        return Arrays.stream(resolved.getAllArtifactsReports())
-                .filter(a -> JAR_TYPE.equalsIgnoreCase(a.getType()))
-                .map(ArtifactDownloadReport::getLocalFile)
-                .collect(Collectors.toList());
+        private String elapsed() {
+            return EvaluationStats.formatNanos(System.nanoTime() - this.startNanos);
+        }
+    }
+
+    /**
+     * Set where to report the progress of background resolutions. Updates are only published from
+     * {@link #applyResolvedDependencies()} and {@link #awaitPendingResolutions()} which are expected to be
+     * called while a cell is executing.
+     *
+     * @param display the stream to display progress on or {@code null} to not report progress.
+     */
+    public void setProgressDisplay(DisplayStream display) {
+        this.progressDisplay = display;
+    }
+
+    /**
+     * Set what to do with the source jars of the resolved dependencies. When set, the sources of
+     * each resolved jar are downloaded in the background after the resolution, if the repository
+     * has them. Missing sources are ignored.
+     *
+     * @param addSourceJar a callback for each source jar or {@code null} to not download sources.
+     */
+    public void setSourceJarConsumer(Consumer<File> addSourceJar) {
+        this.addSourceJar = addSourceJar;
+    }
+
+    private void showProgress(AsyncResolution resolution, String message, boolean update) {
+        DisplayStream display = this.progressDisplay;
+        if (display == null)
+            return;
+
+        DisplayData data = new DisplayData(message);
+        data.setDisplayId(resolution.displayId);
+        if (update)
+            display.updateDisplay(data);
+        else
+            display.display(data);
+    }
+
+    /**
+     * Start resolving the coordinates in the background. The jars are not added to the classpath
+     * until {@link #applyResolvedDependencies()} is called after the resolution is done. See
+     * {@link #resolveMavenDependencies(List, Set, int, boolean, boolean)} for the arguments.
+     *
+     * @return the eventual result of the resolution.
+     */
+    public Future<List<File>> resolveMavenDependenciesAsync(List<String> canonicals, Set<String> repos, int verbosity, boolean refresh, boolean offline) {
+        List<String> coordinates = new ArrayList<>(canonicals);
+        Set<String> from = repos == null ? null : new LinkedHashSet<>(repos);
+
+        AsyncResolution resolution = new AsyncResolution(String.join(", ", coordinates));
+        resolution.result = this.asyncExecutor.submit(() ->
+                this.resolveMavenDependencies(coordinates, from, verbosity, refresh, offline));
+
+        synchronized (this.asyncResolutions) {
+            this.asyncResolutions.add(resolution);
+        }
+
+        this.showProgress(resolution, "Resolving " + resolution.description + " in the background...", false);
+
+        return resolution.result;
+    }
+
+    public boolean hasPendingResolutions() {
+        synchronized (this.asyncResolutions) {
+            return !this.asyncResolutions.isEmpty();
+        }
+    }
+
+    /**
+     * Add the jars from the background resolutions that are done to the classpath and report on them.
+     * Resolutions that failed are reported but otherwise dropped. This should be called between
+     * evaluations, where changing the classpath can't interfere with compiling anything.
+     */
+    public void applyResolvedDependencies() {
+        List<AsyncResolution> done = new LinkedList<>();
+        synchronized (this.asyncResolutions) {
+            for (Iterator<AsyncResolution> it = this.asyncResolutions.iterator(); it.hasNext(); ) {
+                AsyncResolution resolution = it.next();
+                if (resolution.result.isDone()) {
+                    done.add(resolution);
+                    it.remove();
+                }
+            }
+        }
+
+        for (AsyncResolution resolution : done) {
+            List<File> jars;
+            try {
+                jars = resolution.result.get();
+            } catch (InterruptedException | CancellationException e) {
+                this.showProgress(resolution, "Resolving " + resolution.description + " was cancelled.", true);
+                continue;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                this.showProgress(resolution, "Failed to resolve " + resolution.description + ": " + cause.getMessage(), true);
+                continue;
+            }
+
+            this.addJarsToClasspath(jars.stream().map(File::getAbsolutePath)::iterator);
+            this.showProgress(resolution, String.format("Added %d jars for %s (resolved in %s).",
+                    jars.size(), resolution.description, resolution.elapsed()), true);
+        }
     }
 
-    private File convertPomToIvy(Ivy ivy, File pomFile) throws IOException, ParseException {
-        PomModuleDescriptorParser parser = PomModuleDescriptorParser.getInstance();
+    /**
+     * Wait for all of the background resolutions to finish and then {@link #applyResolvedDependencies() apply}
+     * them.
+     *
+     * @return true if there were any resolutions to wait for and so the classpath may have changed.
+     */
+    public boolean awaitPendingResolutions() {
+        List<AsyncResolution> pending;
+        synchronized (this.asyncResolutions) {
+            pending = new ArrayList<>(this.asyncResolutions);
+        }
+
+        if (pending.isEmpty())
+            return false;
 
-        URL pomUrl = pomFile.toURI().toURL();
+        for (AsyncResolution resolution : pending) {
+            if (!resolution.result.isDone())
+                this.showProgress(resolution, "Waiting for " + resolution.description + " to resolve...", true);
 
-        ModuleDescriptor pomModule = parser.parseDescriptor(new IvySettings(), pomFile.toURI().toURL(), false);
+            try {
+                resolution.result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | CancellationException e) {
+                // Reported when applied.
+            }
+        }
+
+        this.applyResolvedDependencies();
+        return true;
+    }
+
+    /**
+     * Make the {@code chain} the resolver that the {@code ivy} instance searches, configured to check the
+     * repositories in it that are due for a check according to their {@link UpdatePolicy}. A repository is
+     * due if it is due for any of the {@code modules} being resolved.
+     *
+     * @return the locations of the repositories that will be checked for updates and whose policy depends on
+     *         when they were last checked. Those that always or never check have nothing to record.
+     */
+    private List<String> searchWith(Ivy ivy, ChainResolver chain, UpdateStatus updateStatus, Collection<String> modules, long now, boolean refresh, boolean offline) {
+        IvySettings settings = ivy.getSettings();
 
-        File tempIvyFile = File.createTempFile("ijava-ivy-", ".xml").getAbsoluteFile();
-        tempIvyFile.deleteOnExit();
+        settings.addResolver(chain);
+        settings.setDefaultResolver(chain.getName());
+
+        List<String> checking = new LinkedList<>();
+        List<String> recording = new LinkedList<>();
+        for (Object r : chain.getResolvers()) {
+            DependencyResolver resolver = (DependencyResolver) r;
+            String location = describeRepository(resolver);
+
+            UpdatePolicy configured = this.getUpdatePolicy(resolver.getName());
+            UpdatePolicy policy = refresh ? UpdatePolicy.ALWAYS : configured;
+            boolean due = !offline && modules.stream()
+                    .anyMatch(m -> policy.isDue(updateStatus.getLastChecked(location, m), now));
+            if (due) {
+                checking.add(location);
+                if (configured.dependsOnLastCheck())
+                    recording.add(location);
+            }
 
-        parser.toIvyFile(pomUrl.openStream(), new URLResource(pomUrl), tempIvyFile, pomModule);
+            MavenResolver.applyUpdateCheck(settings, resolver, due);
+        }
+        // The chain looks in the cache before asking any of its repositories so it needs to look past
+        // the cache whenever any of them are due. As the local repository is always due this is usually
+        // on, the flags of each repository are what decide which of them are actually asked for updates.
+        MavenResolver.applyUpdateCheck(settings, chain, !checking.isEmpty());
 
         MessageLogger logger = ivy.getLoggerEngine();
-        logger.info(new String(Files.readAllBytes(tempIvyFile.toPath()), Charset.forName("utf8")));
+        logger.info("Searching for dependencies in: " + chain.getResolvers());
+        logger.info(offline ? "Offline, only using cached dependencies." : "Checking for updates in: " + checking);
 
-        return tempIvyFile;
+        return recording;
     }
 
-    private void addPomReposToIvySettings(IvySettings settings, File pomFile) throws ModelBuildingException {
-        Model mavenModel = Maven.getInstance().readEffectiveModel(pomFile).getEffectiveModel();
-        ChainResolver pomRepos = MavenToIvy.createChainForModelRepositories(mavenModel);
-        pomRepos.setName(DEFAULT_RESOLVER_NAME);
+    /**
+     * Record that the {@code modules} were checked for in the {@code repositories}. The status only saves
+     * checks that aren't needed, so failing to save it is logged and otherwise ignored.
+     */
+    private void markChecked(Ivy ivy, UpdateStatus updateStatus, Collection<String> repositories, Collection<String> modules, long now) {
+        // A check older than the longest interval of any policy can't postpone another.
+        List<UpdatePolicy> policies = new ArrayList<>(this.updatePolicies.values());
+        policies.add(this.defaultUpdatePolicy);
+        long expiresAfter = policies.stream()
+                .filter(UpdatePolicy::dependsOnLastCheck)
+                .mapToLong(UpdatePolicy::getIntervalMillis)
+                .max().orElse(0);
 
-        settings.addResolver(pomRepos);
-        settings.setDefaultResolver(DEFAULT_RESOLVER_NAME);
+        try {
+            updateStatus.markChecked(repositories, modules, now, expiresAfter);
+        } catch (IOException e) {
+            ivy.getLoggerEngine().warn("Couldn't save when repositories were checked for updates: " + e.getMessage());
+        }
     }
 
-    private List<File> resolveFromIvyFile(Ivy ivy, File ivyFile, List<String> scopes) throws IOException, ParseException {
-        ResolveOptions resolveOptions = new ResolveOptions();
-        resolveOptions.setTransitive(true);
-        resolveOptions.setDownload(true);
-        resolveOptions.setConfs(!scopes.isEmpty()
-                ? scopes.toArray(new String[0])
-                : DEFAULT_RESOLVE_CONFS
-        );
+    /**
+     * Resolve the dependency graph of the {@code module} and then download the artifacts in it that are
+     * accepted by the {@code filter} in parallel.
+     *
+     * @param description what is being resolved, for error messages.
+     *
+     * @return the reports of the artifacts that have a local file.
+     */
+    private List<ArtifactDownloadReport> resolveAndDownload(Ivy ivy, ModuleDescriptor module, ResolveOptions options, Filter<Artifact> filter, String description) throws IOException, ParseException {
+        // Only walk the graph here, the artifacts are downloaded afterwards in parallel.
+        options.setDownload(false);
 
-        ResolveReport resolved = ivy.resolve(ivyFile, resolveOptions);
+        ResolveReport resolved = ivy.resolve(module, options);
         if (resolved.hasError())
             // TODO better error...
-            throw new RuntimeException("Error resolving '" + ivyFile + "'. " + resolved.getAllProblemMessages());
+            throw new RuntimeException("Error resolving '" + description + "'. " + resolved.getAllProblemMessages());
 
-        return Arrays.stream(resolved.getAllArtifactsReports())
-                .map(ArtifactDownloadReport::getLocalFile)
+        List<ArtifactDownloadReport> downloaded = this.downloadArtifacts(ivy, resolved, filter, options.isUseCacheOnly());
+
+        List<ArtifactDownloadReport> failed = downloaded.stream()
+                .filter(r -> r.getDownloadStatus() == DownloadStatus.FAILED)
                 .collect(Collectors.toList());
+        if (!failed.isEmpty()) {
+            MessageLogger logger = ivy.getLoggerEngine();
+            failed.forEach(r -> {
+                logger.error("download " + r.getDownloadStatus() + ": " + r.getArtifact() + " of " + r.getType());
+                if (r.getArtifactOrigin() == null)
+                    logger.error("\tCouldn't find artifact.");
+                else
+                    logger.error("\tfrom: " + r.getArtifactOrigin());
+            });
+
+            throw new RuntimeException("Error downloading the artifacts for '" + description + "'. "
+                    + failed.stream().map(r -> r.getArtifact().toString()).collect(Collectors.joining(", ")));
+        }
+
+        return downloaded.stream()
+                .filter(r -> r.getLocalFile() != null)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Remember what the {@code key} resolved to, locking it to the exact artifacts.
+     *
+     * @return the local files of the {@code artifacts}.
+     */
+    private List<File> remember(ResolutionCache.Key key, List<ArtifactDownloadReport> artifacts) {
+        List<ResolutionCache.LockedArtifact> locked = new ArrayList<>(artifacts.size());
+        List<File> files = new ArrayList<>(artifacts.size());
+        Set<File> seen = new HashSet<>();
+
+        for (ArtifactDownloadReport report : artifacts) {
+            if (!seen.add(report.getLocalFile()))
+                continue;
+
+            Artifact artifact = report.getArtifact();
+            ModuleRevisionId mrid = artifact.getModuleRevisionId();
+            locked.add(new ResolutionCache.LockedArtifact(
+                    mrid.getOrganisation(), mrid.getName(), mrid.getRevision(),
+                    artifact.getName(), artifact.getType(), artifact.getExt(),
+                    artifact.getExtraAttribute("classifier")
+            ));
+            files.add(report.getLocalFile());
+        }
+
+        this.resolutionCache.put(key, locked, files);
+        return files;
+    }
+
+    /**
+     * Configure whether the {@code resolver} looks for changes to what it already has cached.
+     *
+     * @param due if the repository is due for a check according to its {@link UpdatePolicy}.
+     */
+    private static void applyUpdateCheck(IvySettings settings, DependencyResolver resolver, boolean due) {
+        if (!(resolver instanceof AbstractResolver))
+            return;
+
+        AbstractResolver r = (AbstractResolver) resolver;
+        r.setCheckmodified(due);
+        r.setChangingMatcher(PatternMatcher.REGEXP);
+        r.setChangingPattern(due ? SNAPSHOT_PATTERN : null);
+
+        // Dynamic revisions (ranges, latest.release, etc.) resolve through the repository metadata. What they
+        // resolved to is cached for the ttl, which is kept per resolver by giving each its own view of the cache.
+        DefaultRepositoryCacheManager cache = new DefaultRepositoryCacheManager(r.getName(), settings, settings.getDefaultCache());
+        cache.setDefaultTTL(due ? 0 : Long.MAX_VALUE);
+        r.setRepositoryCacheManager(cache);
+    }
+
+    /**
+     * Create a module that depends on all of the {@code dependencies} in each of the {@code confs}. This
+     * is the multi-module counterpart of {@link DefaultModuleDescriptor#newCallerInstance(ModuleRevisionId, String[], boolean, boolean)}.
+     */
+    private static DefaultModuleDescriptor newCallerInstance(List<ModuleRevisionId> dependencies, String[] confs, boolean transitive, boolean changing) {
+        DefaultModuleDescriptor caller = new DefaultModuleDescriptor(
+                ModuleRevisionId.newInstance("ijava.notebook", "cell-caller", "working"),
+                "integration",
+                null,
+                true
+        );
+
+        for (String conf : confs)
+            caller.addConfiguration(new Configuration(conf));
+        caller.setLastModified(System.currentTimeMillis());
+
+        for (ModuleRevisionId dependency : dependencies) {
+            DefaultDependencyDescriptor dd = new DefaultDependencyDescriptor(caller, dependency, true, changing, transitive);
+            for (String conf : confs)
+                dd.addDependencyConfiguration(conf, conf);
+            caller.addDependency(dd);
+        }
+
+        return caller;
+    }
+
+    /**
+     * Create a module that depends on exactly the {@code locked} artifacts, without their dependencies, in
+     * each of the {@code confs}. Resolving it replays a resolution that was locked.
+     */
+    private static DefaultModuleDescriptor newLockedCallerInstance(List<ResolutionCache.LockedArtifact> locked, String[] confs) {
+        DefaultModuleDescriptor caller = MavenResolver.newCallerInstance(Collections.emptyList(), confs, false, false);
+
+        Map<ModuleRevisionId, DefaultDependencyDescriptor> dependencies = new LinkedHashMap<>();
+        for (ResolutionCache.LockedArtifact artifact : locked) {
+            ModuleRevisionId mrid = ModuleRevisionId.newInstance(artifact.getOrganisation(), artifact.getModule(), artifact.getRevision());
+            DefaultDependencyDescriptor dd = dependencies.computeIfAbsent(mrid, id -> {
+                DefaultDependencyDescriptor d = new DefaultDependencyDescriptor(caller, id, true, false, false);
+                for (String conf : confs)
+                    d.addDependencyConfiguration(conf, "*");
+                caller.addDependency(d);
+                return d;
+            });
+
+            DefaultDependencyArtifactDescriptor dad = new DefaultDependencyArtifactDescriptor(
+                    dd, artifact.getName(), artifact.getType(), artifact.getExt(), null,
+                    artifact.getClassifier() == null
+                            ? Collections.emptyMap()
+                            : Map.of("m:classifier", artifact.getClassifier())
+            );
+            for (String conf : confs)
+                dd.addDependencyArtifact(conf, dad);
+        }
+
+        return caller;
+    }
+
+    /**
+     * Download the artifacts of every module in the resolved graph that are accepted by the {@code filter}. This
+     * does what {@link org.apache.ivy.core.resolve.ResolveEngine#downloadArtifacts(ResolveReport, Filter, DownloadOptions)}
+     * does but downloads the artifacts of different modules concurrently.
+     *
+     * @return the download reports in the order of the modules in the graph.
+     */
+    private List<ArtifactDownloadReport> downloadArtifacts(Ivy ivy, ResolveReport resolved, Filter<Artifact> filter, boolean offline) throws IOException {
+        List<Future<DownloadReport>> downloads = new LinkedList<>();
+        List<Callable<DownloadReport>> sourceDownloads = new LinkedList<>();
+
+        for (IvyNode node : resolved.getDependencies()) {
+            if (node.isCompletelyEvicted() || node.hasProblem() || node.getModuleRevision() == null)
+                continue;
+
+            DependencyResolver resolver = node.getModuleRevision().getArtifactResolver();
+            Artifact[] artifacts = node.getSelectedArtifacts(filter);
+            if (artifacts.length == 0)
+                continue;
+
+            Artifact[] sources = MavenResolver.sourcesOf(artifacts);
+            if (sources.length > 0)
+                sourceDownloads.add(offline
+                        ? () -> MavenResolver.findInCache(resolver, sources)
+                        : () -> MavenResolver.download(ivy, resolver, sources));
+
+            if (offline) {
+                downloads.add(CompletableFuture.completedFuture(MavenResolver.findInCache(resolver, artifacts)));
+                continue;
+            }
+
+            downloads.add(this.downloadExecutor.submit(() -> MavenResolver.download(ivy, resolver, artifacts)));
+        }
+
+        List<ArtifactDownloadReport> reports = new LinkedList<>();
+        try {
+            for (Future<DownloadReport> download : downloads)
+                Collections.addAll(reports, download.get().getArtifactsReports());
+        } catch (InterruptedException e) {
+            downloads.forEach(d -> d.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading artifacts.");
+        } catch (ExecutionException e) {
+            downloads.forEach(d -> d.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+
+        this.downloadSources(sourceDownloads);
+
+        return reports;
+    }
+
+    private static DownloadReport download(Ivy ivy, DependencyResolver resolver, Artifact[] artifacts) {
+        // The resolvers find the settings and cache through the context of the thread using them.
+        ivy.pushContext();
+        try {
+            return resolver.download(artifacts, new DownloadOptions());
+        } finally {
+            ivy.popContext();
+        }
+    }
+
+    /**
+     * @return the source artifacts that correspond to the jars in the {@code artifacts}.
+     */
+    private static Artifact[] sourcesOf(Artifact[] artifacts) {
+        return Arrays.stream(artifacts)
+                .filter(a -> JAR_TYPE.equalsIgnoreCase(a.getType()) && a.getExtraAttribute("classifier") == null)
+                .map(a -> new DefaultArtifact(a.getModuleRevisionId(), a.getPublicationDate(), a.getName(),
+                        SOURCE_TYPE, "jar", Collections.singletonMap("m:classifier", "sources")))
+                .toArray(Artifact[]::new);
+    }
+
+    /**
+     * Run the {@code sourceDownloads} in the background and pass each source jar that is found on
+     * to the {@link #setSourceJarConsumer(Consumer) source jar consumer}. Nothing waits for them
+     * as the sources are only used for documentation.
+     */
+    private void downloadSources(List<Callable<DownloadReport>> sourceDownloads) {
+        Consumer<File> addSourceJar = this.addSourceJar;
+        if (addSourceJar == null)
+            return;
+
+        for (Callable<DownloadReport> download : sourceDownloads) {
+            this.sourcesExecutor.submit(() -> {
+                try {
+                    for (ArtifactDownloadReport report : download.call().getArtifactsReports())
+                        if (report.getDownloadStatus() != DownloadStatus.FAILED && report.getLocalFile() != null)
+                            addSourceJar.accept(report.getLocalFile());
+                } catch (Exception e) {
+                    // Not every module publishes its sources.
+                }
+            });
+        }
+    }
+
+    /**
+     * Report on the {@code artifacts} as if they were downloaded, using what is in the cache instead of
+     * contacting the repository.
+     */
+    private static DownloadReport findInCache(DependencyResolver resolver, Artifact[] artifacts) {
+        DownloadReport report = new DownloadReport();
+        RepositoryCacheManager cache = resolver.getRepositoryCacheManager();
+
+        for (Artifact artifact : artifacts) {
+            ArtifactDownloadReport artifactReport = new ArtifactDownloadReport(artifact);
+
+            File cached = cache instanceof DefaultRepositoryCacheManager
+                    ? ((DefaultRepositoryCacheManager) cache).getArchiveFileInCache(artifact)
+                    : null;
+            if (cached != null && cached.isFile()) {
+                artifactReport.setLocalFile(cached);
+                artifactReport.setSize(cached.length());
+                artifactReport.setDownloadStatus(DownloadStatus.NO);
+            } else {
+                artifactReport.setDownloadStatus(DownloadStatus.FAILED);
+                artifactReport.setDownloadDetails("Not in the cache and offline.");
+            }
+
+            report.addArtifactReport(artifactReport);
+        }
+
+        return report;
+    }
+
+    private static ExecutorService newDaemonPool(int threads, String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+        );
+        // Don't keep idle threads around between resolutions.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * A POM parsed into what is needed to resolve its dependencies.
+     */
+    private static class ParsedPom {
+        private final ModuleDescriptor descriptor;
+        private final Model model;
+        // The local files of the parents that went into the effective model and what they contained.
+        private final List<File> parents;
+        private final String parentsDigest;
+
+        private ParsedPom(ModuleDescriptor descriptor, Model model, List<File> parents) throws IOException {
+            this.descriptor = descriptor;
+            this.model = model;
+            this.parents = parents;
+            this.parentsDigest = MavenResolver.digestFiles(parents);
+        }
+    }
+
+    /**
+     * Parse a POM without writing it anywhere.
+     *
+     * @param pom      the contents of the POM.
+     * @param location the file the POM was read from, used to find the parent of the POM, or {@code null} if
+     *                 it didn't come from a file.
+     */
+    private static ParsedPom parsePom(byte[] pom, File location) throws IOException, ParseException, ModelBuildingException {
+        ModelBuildingResult result = location != null
+                ? Maven.getInstance().readEffectiveModel(location)
+                : Maven.getInstance().readEffectiveModel(new String(pom, StandardCharsets.UTF_8));
+
+        // Ivy has no way to find the parents of the POM, describe the effective model instead as it already
+        // has everything inherited from them.
+        Model flattened = result.getEffectiveModel().clone();
+        flattened.setParent(null);
+        ByteArrayOutputStream flattenedPom = new ByteArrayOutputStream();
+        new MavenXpp3Writer().write(flattenedPom, flattened);
+
+        URL pomUrl = MavenResolver.inMemoryURL(location != null ? location.getName() : "cell.pom", flattenedPom.toByteArray());
+        ModuleDescriptor descriptor = PomModuleDescriptorParser.getInstance().parseDescriptor(new IvySettings(), pomUrl, false);
+
+        // The first id is the POM itself, the rest are its parents ending with the super POM.
+        List<File> parents = new LinkedList<>();
+        for (String id : result.getModelIds().subList(1, result.getModelIds().size())) {
+            Model parent = result.getRawModel(id);
+            if (parent != null && parent.getPomFile() != null)
+                parents.add(parent.getPomFile().getAbsoluteFile());
+        }
+
+        return new ParsedPom(descriptor, result.getEffectiveModel(), parents);
+    }
+
+    private static String digestFiles(List<File> files) throws IOException {
+        List<byte[]> parts = new LinkedList<>();
+        for (File file : files) {
+            parts.add(file.getPath().getBytes(StandardCharsets.UTF_8));
+            parts.add(file.isFile() ? Files.readAllBytes(file.toPath()) : new byte[0]);
+        }
+        return MavenResolver.sha256(parts.toArray(new byte[0][]));
+    }
+
+    private ParsedPom getParsedPom(String key) {
+        synchronized (this.parsedPoms) {
+            return this.parsedPoms.get(key);
+        }
+    }
+
+    private void putParsedPom(String key, ParsedPom pom) {
+        synchronized (this.parsedPoms) {
+            this.parsedPoms.put(key, pom);
+        }
+    }
+
+    /**
+     * A url that reads the {@code content} rather than something on the file system or network.
+     */
+    private static URL inMemoryURL(String name, byte[] content) throws MalformedURLException {
+        return new URL(null, "ijava-memory:" + name, new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) {
+                return new URLConnection(url) {
+                    @Override
+                    public void connect() { }
+
+                    @Override
+                    public InputStream getInputStream() {
+                        return new ByteArrayInputStream(content);
+                    }
+
+                    @Override
+                    public long getContentLengthLong() {
+                        return content.length;
+                    }
+                };
+            }
+        });
+    }
+
+    private static String sha256(byte[]... parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every java platform is required to support SHA-256.
+            throw new RuntimeException(e);
+        }
+
+        for (byte[] part : parts)
+            digest.update(part);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
     }
 
+    /**
+     * Resolve the dependencies of a parsed POM from the repositories it declares. Like coordinates, the result
+     * is remembered under the {@code key} unless {@code refresh} is set.
+     *
+     * @param key identifies the contents of the POM.
+     */
+    private synchronized List<File> resolvePom(String key, ParsedPom pom, List<String> scopes, int verbosity, boolean refresh, boolean offline) throws IOException, ParseException {
+        String[] confs = !scopes.isEmpty()
+                ? scopes.toArray(new String[0])
+                : DEFAULT_RESOLVE_CONFS;
+
+        ChainResolver pomRepos = MavenToIvy.createChainForModelRepositories(pom.model);
+        pomRepos.setName(DEFAULT_RESOLVER_NAME);
+
+        ResolutionCache.Key cacheKey = new ResolutionCache.Key(
+                "pom:" + key,
+                pomRepos.getResolvers().stream()
+                        .map(r -> describeRepository(r))
+                        .collect(Collectors.toList()),
+                Arrays.asList(confs)
+        );
+
+        if (!refresh) {
+            List<File> cached = this.resolutionCache.get(cacheKey);
+            if (cached != null)
+                return cached;
+        }
+
+        List<ResolutionCache.LockedArtifact> locked = refresh ? null : this.resolutionCache.getLocked(cacheKey);
+        if (locked != null) {
+            List<File> cached = this.useLockedFromCache(cacheKey, locked);
+            if (cached != null)
+                return cached;
+        }
+
+        Ivy ivy = this.createDefaultIvyInstance(verbosity);
+        UpdateStatus updateStatus = new UpdateStatus(ivy.getSettings().getDefaultCache().toPath());
+        long now = System.currentTimeMillis();
+
+        List<String> modules = Arrays.stream(pom.descriptor.getDependencies())
+                .map(d -> d.getDependencyRevisionId().toString())
+                .collect(Collectors.toList());
+        List<String> recording = this.searchWith(ivy, pomRepos, updateStatus, modules, now, refresh, offline);
+
+        ResolveOptions resolveOptions = new ResolveOptions();
+        resolveOptions.setTransitive(true);
+        resolveOptions.setConfs(confs);
+        resolveOptions.setUseCacheOnly(offline);
+
+        ModuleDescriptor module = pom.descriptor;
+        if (locked != null) {
+            resolveOptions.setTransitive(false);
+            module = MavenResolver.newLockedCallerInstance(locked, confs);
+        }
+
+        List<ArtifactDownloadReport> artifacts = this.resolveAndDownload(ivy, module, resolveOptions,
+                a -> true, pom.descriptor.getModuleRevisionId().toString());
+
+        this.markChecked(ivy, updateStatus, recording, modules, now);
+        return this.remember(cacheKey, artifacts);
+    }
 
     private String solidifyPartialPOM(String rawIn) throws ParserConfigurationException, IOException, SAXException, TransformerException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setValidating(false);
-        DocumentBuilder builder = factory.newDocumentBuilder();
+        DocumentBuilder builder;
+        synchronized (DOCUMENT_BUILDER_FACTORY) {
+            builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+        }
 
         // Wrap in a dummy tag to allow fragments
         InputStream inStream = new SequenceInputStream(Collections.enumeration(Arrays.asList(
@@ -409,7 +1309,10 @@ public class MavenResolver {
     }
 
     private String writeDOM(Source src) throws TransformerException, UnsupportedEncodingException {
-        Transformer idTransformer = TransformerFactory.newInstance().newTransformer();
+        Transformer idTransformer;
+        synchronized (TRANSFORMER_FACTORY) {
+            idTransformer = TRANSFORMER_FACTORY.newTransformer();
+        }
         idTransformer.setOutputProperty(OutputKeys.INDENT, "yes");
 
         ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -421,15 +1324,19 @@ public class MavenResolver {
     }
 
     public void addJarsToClasspath(Iterable<String> jars) {
-        jars.forEach(this.addToClasspath);
+        List<String> batch = new LinkedList<>();
+        jars.forEach(batch::add);
+        this.addToClasspath.accept(batch);
     }
 
-    @LineMagic(aliases = { "addMavenDependency", "maven" })
     public void addMavenDependencies(List<String> args) {
         MagicsArgs schema = MagicsArgs.builder()
                 .varargs("deps")
                 .keyword("from")
                 .flag("verbose", 'v')
+                .flag("refresh", 'r')
+                .flag("offline", 'o')
+                .flag("async", 'a')
                 .onlyKnownKeywords()
                 .onlyKnownFlags()
                 .build();
@@ -439,54 +1346,93 @@ public class MavenResolver {
         List<String> deps = vals.get("deps");
         List<String> from = vals.get("from");
         int verbosity = vals.get("verbose").size();
+        boolean refresh = !vals.get("refresh").isEmpty();
+        boolean offline = this.offline || !vals.get("offline").isEmpty();
 
         Set<String> repos = from.isEmpty() ? null : new LinkedHashSet<>(from);
 
+        if (!vals.get("async").isEmpty()) {
+            this.resolveMavenDependenciesAsync(deps, repos, verbosity, refresh, offline);
+            return;
+        }
 
-        for (String dep : deps) {
-            try {
-                this.addJarsToClasspath(
-                        this.resolveMavenDependency(dep, repos, verbosity).stream()
-                                .map(File::getAbsolutePath)
-                                ::iterator
-                );
-            } catch (IOException | ParseException e) {
-                throw new RuntimeException(e);
-            }
+        try {
+            this.addJarsToClasspath(
+                    this.resolveMavenDependencies(deps, repos, verbosity, refresh, offline).stream()
+                            .map(File::getAbsolutePath)
+                            ::iterator
+            );
+        } catch (IOException | ParseException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    @LineMagic(aliases = { "mavenRepo" })
     public void addMavenRepo(List<String> args) {
-        MagicsArgs schema = MagicsArgs.builder().required("id").required("url").build();
+        MagicsArgs schema = MagicsArgs.builder()
+                .required("id")
+                .optional("url")
+                .keyword("update", MagicsArgs.KeywordSpec.ONCE)
+                .onlyKnownKeywords()
+                .onlyKnownFlags()
+                .build();
         Map<String, List<String>> vals = schema.parse(args);
 
         String id = vals.get("id").get(0);
-        String url = vals.get("url").get(0);
+        List<String> url = vals.get("url");
+        List<String> update = vals.get("update");
 
-        this.addRemoteRepo(id, url);
+        UpdatePolicy policy = update.isEmpty() ? null : UpdatePolicy.parse(update.get(0));
+
+        if (url.isEmpty()) {
+            // Without a url this is changing the policy of a repository that was already added.
+            if (policy == null)
+                throw new IllegalArgumentException("A repository url is required unless setting the --update policy of an existing repository.");
+            if (this.repos.stream().noneMatch(r -> r.getName().equalsIgnoreCase(id)))
+                throw new IllegalArgumentException("No repository named '" + id + "'.");
+
+            this.setUpdatePolicy(id, policy);
+        } else {
+            this.addRemoteRepo(id, url.get(0), policy);
+        }
     }
 
-    @CellMagic
     public void loadFromPOM(List<String> args, String body) throws Exception {
-        try {
-            File tempPomPath = File.createTempFile("ijava-maven-", ".pom").getAbsoluteFile();
-            tempPomPath.deleteOnExit();
+        MagicsArgs schema = MagicsArgs.builder()
+                .varargs("scopes")
+                .flag("verbose", 'v')
+                .flag("refresh", 'r')
+                .flag("offline", 'o')
+                .onlyKnownKeywords().onlyKnownFlags().build();
 
-            String rawPom = this.solidifyPartialPOM(body);
-            Files.write(tempPomPath.toPath(), rawPom.getBytes(Charset.forName("utf-8")));
+        Map<String, List<String>> vals = schema.parse(args);
 
-            List<String> loadArgs = new ArrayList<>(args.size() + 1);
-            loadArgs.add(tempPomPath.getAbsolutePath());
-            loadArgs.addAll(args);
+        List<String> scopes = vals.get("scopes");
+        int verbosity = vals.get("verbose").size();
+        boolean refresh = !vals.get("refresh").isEmpty();
+        boolean offline = this.offline || !vals.get("offline").isEmpty();
 
-            this.loadFromPOM(loadArgs);
+        // Identify the pom by the cell rather than the solidified POM so that running the same cell
+        // again doesn't need to parse anything.
+        String key = MavenResolver.sha256(body.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            ParsedPom pom = this.getParsedPom(key);
+            if (pom == null) {
+                String rawPom = this.solidifyPartialPOM(body);
+                pom = MavenResolver.parsePom(rawPom.getBytes(StandardCharsets.UTF_8), null);
+                this.putParsedPom(key, pom);
+            }
+
+            this.addJarsToClasspath(
+                    this.resolvePom(key, pom, scopes, verbosity, refresh, offline).stream()
+                            .map(File::getAbsolutePath)
+                            ::iterator
+            );
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    @LineMagic
     public void loadFromPOM(List<String> args) {
         if (args.isEmpty())
             throw new IllegalArgumentException("Loading from POM requires at least the path to the POM file");
@@ -495,6 +1441,8 @@ public class MavenResolver {
                 .required("pomPath")
                 .varargs("scopes")
                 .flag("verbose", 'v')
+                .flag("refresh", 'r')
+                .flag("offline", 'o')
                 .onlyKnownKeywords().onlyKnownFlags().build();
 
         Map<String, List<String>> vals = schema.parse(args);
@@ -502,18 +1450,26 @@ public class MavenResolver {
         String pomPath = vals.get("pomPath").get(0);
         List<String> scopes = vals.get("scopes");
         int verbosity = vals.get("verbose").size();
+        boolean refresh = !vals.get("refresh").isEmpty();
+        boolean offline = this.offline || !vals.get("offline").isEmpty();
 
-        File pomFile = new File(pomPath);
+        File pomFile = new File(pomPath).getAbsoluteFile();
         try {
-            Ivy ivy = this.createDefaultIvyInstance(verbosity);
-            IvySettings settings = ivy.getSettings();
-
-            File ivyFile = this.convertPomToIvy(ivy, pomFile);
+            byte[] content = Files.readAllBytes(pomFile.toPath());
+            // The location is part of the key as the parent of a POM may be found relative to it.
+            String key = MavenResolver.sha256(pomFile.getPath().getBytes(StandardCharsets.UTF_8), content);
+
+            ParsedPom pom = this.getParsedPom(key);
+            // The effective model also inherits from the parents so an edit to any of them needs a new parse.
+            if (pom == null || !pom.parentsDigest.equals(MavenResolver.digestFiles(pom.parents))) {
+                pom = MavenResolver.parsePom(content, pomFile);
+                this.putParsedPom(key, pom);
+            }
 
-            this.addPomReposToIvySettings(settings, pomFile);
+            String resolutionKey = MavenResolver.sha256(key.getBytes(StandardCharsets.UTF_8), pom.parentsDigest.getBytes(StandardCharsets.UTF_8));
 
             this.addJarsToClasspath(
-                    this.resolveFromIvyFile(ivy, ivyFile, scopes).stream()
+                    this.resolvePom(resolutionKey, pom, scopes, verbosity, refresh, offline).stream()
                             .map(File::getAbsolutePath)
                             ::iterator
             );
@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.magics;
+
+import io.github.spencerpark.ijava.JavaKernel;
+import io.github.spencerpark.ijava.execution.CodeEvaluator;
+import io.github.spencerpark.ijava.execution.CompilationException;
+import io.github.spencerpark.ijava.execution.EvaluationStats;
+import io.github.spencerpark.jupyter.kernel.magic.registry.CellMagic;
+import io.github.spencerpark.jupyter.kernel.magic.registry.LineMagic;
+import io.github.spencerpark.jupyter.kernel.magic.registry.MagicsArgs;
+import jdk.jshell.JShell;
+import jdk.jshell.Snippet;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+public class TimeMagics {
+    private static final int DEFAULT_WARMUP_ITERATIONS = 5;
+    private static final int DEFAULT_MEASUREMENT_ITERATIONS = 20;
+
+    /**
+     * When not specified, the number of operations in an iteration is chosen so that an iteration
+     * takes at least this long. Shorter iterations are dominated by the cost of reading the clock.
+     */
+    private static final long MIN_BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MAX_BATCH_SIZE = 1 << 24;
+
+    private static final Pattern TRAILING_SEMICOLONS = Pattern.compile("[\\s;]*$");
+
+    private static final AtomicInteger TIMEIT_ID = new AtomicInteger(0);
+
+    private final JavaKernel kernel;
+
+    /**
+     * The results of the timed code are compared against this value to keep the JIT from
+     * eliminating code whose result is unused. Nothing else can reference this object so the
+     * comparison is never true.
+     */
+    private volatile Object blackhole = new Object();
+
+    public TimeMagics(JavaKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    private static void report(List<EvaluationStats> stats) {
+        if (stats.isEmpty()) {
+            System.out.println("Nothing was compiled or executed.");
+            return;
+        }
+
+        System.out.println(EvaluationStats.total(stats));
+        if (stats.size() > 1)
+            System.out.printf("Over %d snippets.%n", stats.size());
+    }
+
+    /**
+     * Report the time spent compiling and executing the previously executed cell.
+     */
+    @LineMagic
+    public void time(List<String> args) {
+        if (!args.isEmpty())
+            throw new IllegalArgumentException("%time reports on the previous cell and doesn't take arguments. Use %%time to time a cell.");
+
+        report(this.kernel.getEvaluator().getLastEvaluationStats());
+    }
+
+    /**
+     * Execute the body and report the time spent compiling and executing it.
+     */
+    @CellMagic
+    public Object time(List<String> args, String body) throws Exception {
+        Object result = this.kernel.evalRaw(body);
+        report(this.kernel.getEvaluator().getLastEvaluationStats());
+        return result;
+    }
+
+    private static int intArg(Map<String, List<String>> vals, String name, int defaultValue, int min) {
+        List<String> val = vals.get(name);
+        if (val.isEmpty()) return defaultValue;
+
+        try {
+            int parsed = Integer.parseInt(val.get(0));
+            if (parsed >= min) return parsed;
+        } catch (NumberFormatException ignored) {
+        }
+
+        throw new IllegalArgumentException(String.format("--%s must be an integer of at least %d but was '%s'", name, min, val.get(0)));
+    }
+
+    /**
+     * Compile the body into a method returning the value of the last expression, if there is one,
+     * and obtain a handle for invoking it. This is the only time the body is compiled.
+     */
+    @SuppressWarnings("unchecked")
+    private static Callable<Object> compile(CodeEvaluator evaluator, String name, String body) throws Exception {
+        List<String> statements = evaluator.splitStatements(body);
+        if (statements.isEmpty())
+            throw new IllegalArgumentException("Nothing to time, the cell body is empty.");
+
+        String leading = String.join("\n", statements.subList(0, statements.size() - 1));
+        String last = TRAILING_SEMICOLONS.matcher(statements.get(statements.size() - 1)).replaceFirst("");
+
+        try {
+            evaluator.eval(String.format("Object %s() throws Exception {\n%s\nreturn %s;\n}", name, leading, last));
+        } catch (CompilationException e) {
+            // The last statement isn't an expression with a value.
+            evaluator.eval(String.format("Object %s() throws Exception {\n%s\nreturn null;\n}", name, String.join("\n", statements)));
+        }
+
+        return (Callable<Object>) evaluator.eval(String.format("(java.util.concurrent.Callable<Object>) () -> %s()", name));
+    }
+
+    private long runBatch(Callable<Object> op, int batchSize) throws Exception {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < batchSize; i++) {
+            Object result = op.call();
+            if (result == this.blackhole)
+                this.blackhole = new Object();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private int calibrateBatchSize(Callable<Object> op) throws Exception {
+        int batchSize = 1;
+        while (batchSize < MAX_BATCH_SIZE && this.runBatch(op, batchSize) < MIN_BATCH_NANOS)
+            batchSize *= 2;
+        return batchSize;
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /**
+     * Benchmark the body. The body is compiled once and then executed repeatedly in iterations of
+     * many operations. The first iterations give the JIT a chance to optimize the code and are not
+     * measured.
+     */
+    @CellMagic
+    public void timeit(List<String> args, String body) throws Exception {
+        MagicsArgs schema = MagicsArgs.builder()
+                .keyword("warmup", MagicsArgs.KeywordSpec.ONCE)
+                .keyword("iterations", MagicsArgs.KeywordSpec.ONCE)
+                .keyword("batch", MagicsArgs.KeywordSpec.ONCE)
+                .onlyKnownKeywords()
+                .onlyKnownFlags()
+                .build();
+
+        Map<String, List<String>> vals = schema.parse(args);
+
+        int warmupIterations = intArg(vals, "warmup", DEFAULT_WARMUP_ITERATIONS, 0);
+        int iterations = intArg(vals, "iterations", DEFAULT_MEASUREMENT_ITERATIONS, 1);
+        int batchSize = intArg(vals, "batch", -1, 1);
+
+        CodeEvaluator evaluator = this.kernel.getEvaluator();
+        JShell shell = evaluator.getShell();
+        Set<Snippet> existing = shell.snippets().collect(Collectors.toSet());
+
+        try {
+            Callable<Object> op = compile(evaluator, "$timeit" + TIMEIT_ID.getAndIncrement(), body);
+
+            if (batchSize < 0)
+                batchSize = this.calibrateBatchSize(op);
+
+            for (int i = 0; i < warmupIterations; i++)
+                this.runBatch(op, batchSize);
+
+            double[] perOp = new double[iterations];
+            long gcStart = EvaluationStats.totalGcMillis();
+            long allocatedStart = EvaluationStats.currentThreadAllocatedBytes();
+            for (int i = 0; i < iterations; i++)
+                perOp[i] = this.runBatch(op, batchSize) / (double) batchSize;
+            long allocated = EvaluationStats.since(allocatedStart, EvaluationStats.currentThreadAllocatedBytes());
+            long gc = EvaluationStats.since(gcStart, EvaluationStats.totalGcMillis());
+
+            double mean = Arrays.stream(perOp).average().orElse(0);
+            double variance = iterations > 1
+                    ? Arrays.stream(perOp).map(t -> (t - mean) * (t - mean)).sum() / (iterations - 1)
+                    : 0;
+            Arrays.sort(perOp);
+
+            System.out.printf("%s +/- %s per op (mean +/- std. dev. of %d iterations of %d ops, after %d warmup iterations)%n",
+                    EvaluationStats.formatNanos(mean), EvaluationStats.formatNanos(Math.sqrt(variance)),
+                    iterations, batchSize, warmupIterations);
+            System.out.printf("min: %s, p50: %s, p90: %s, p99: %s, max: %s%n",
+                    EvaluationStats.formatNanos(perOp[0]),
+                    EvaluationStats.formatNanos(percentile(perOp, 0.5)),
+                    EvaluationStats.formatNanos(percentile(perOp, 0.9)),
+                    EvaluationStats.formatNanos(percentile(perOp, 0.99)),
+                    EvaluationStats.formatNanos(perOp[perOp.length - 1]));
+            System.out.printf("Allocated: %s per op, GC: %s%n",
+                    allocated == EvaluationStats.UNAVAILABLE
+                            ? "n/a"
+                            : EvaluationStats.formatBytes(Math.round(allocated / ((double) iterations * batchSize))),
+                    gc == EvaluationStats.UNAVAILABLE ? "n/a" : gc + " ms");
+        } finally {
+            // Don't leave the generated method and handle behind in the notebook.
+            shell.snippets()
+                    .filter(s -> !existing.contains(s) && shell.status(s).isActive())
+                    .collect(Collectors.toList())
+                    .forEach(evaluator::drop);
+        }
+    }
+}
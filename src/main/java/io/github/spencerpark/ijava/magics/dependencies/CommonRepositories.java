@@ -12,6 +12,8 @@ public class CommonRepositories {
     protected static final String MAVEN_ARTIFACT_PATTERN = MAVEN_PATTERN_PREFIX + ".[ext]";
     protected static final String MAVEN_POM_PATTERN = MAVEN_PATTERN_PREFIX + ".pom";
 
+    public static final String MAVEN_LOCAL_NAME = "maven-local";
+
     public static DependencyResolver maven(String name, String urlRaw) {
         IBiblioResolver resolver = new IBiblioResolver();
         resolver.setM2compatible(true);
@@ -38,7 +40,7 @@ public class CommonRepositories {
         resolver.setUseMavenMetadata(true);
         resolver.setUsepoms(true);
 
-        resolver.setName("maven-local");
+        resolver.setName(MAVEN_LOCAL_NAME);
 
         Path localRepoPath;
         try {
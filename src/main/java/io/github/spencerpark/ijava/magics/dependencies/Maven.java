@@ -13,6 +13,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -35,6 +36,7 @@ public class Maven {
     // User provider environment overrides.
     private final Properties properties;
     private final Map<String, String> environment;
+    private DefaultModelBuilder modelBuilder;
 
     public Maven(Properties properties, Map<String, String> environment) {
         this.properties = properties;
@@ -178,7 +180,7 @@ public class Maven {
 
     public ModelBuildingResult readEffectiveModel(CharSequence pom) throws ModelBuildingException {
         return this.readEffectiveModel(req ->
-                req.setModelSource((ModelSource) new StringSource(pom))
+                req.setModelSource(new InMemoryModelSource(pom))
         );
     }
 
@@ -188,8 +190,34 @@ public class Maven {
         );
     }
 
+    /**
+     * A POM that only exists in memory. It has no location so a parent can't be found relative to it.
+     */
+    private static class InMemoryModelSource extends StringSource implements ModelSource2 {
+        private InMemoryModelSource(CharSequence pom) {
+            super(pom);
+        }
+
+        @Override
+        public ModelSource2 getRelatedSource(String relPath) {
+            return null;
+        }
+
+        @Override
+        public URI getLocationURI() {
+            return null;
+        }
+    }
+
+    private synchronized DefaultModelBuilder getModelBuilder() {
+        // Assembling the builder wires up all of its components, it is stateless so only do that once.
+        if (this.modelBuilder == null)
+            this.modelBuilder = new DefaultModelBuilderFactory().newInstance();
+        return this.modelBuilder;
+    }
+
     private ModelBuildingResult readEffectiveModel(Function<ModelBuildingRequest, ModelBuildingRequest> configuration) throws ModelBuildingException {
-        DefaultModelBuilder modelBuilder = new DefaultModelBuilderFactory().newInstance();
+        DefaultModelBuilder modelBuilder = this.getModelBuilder();
 
         ModelBuildingRequest request = new DefaultModelBuildingRequest();
 
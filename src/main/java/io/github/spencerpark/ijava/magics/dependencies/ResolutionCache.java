@@ -0,0 +1,301 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.magics.dependencies;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Remembers the jars that a set of coordinates resolved to so that resolving the same thing again
+ * doesn't need to consult any repositories. If a lockfile is given the artifacts that were resolved,
+ * identified by module revision, type and classifier, are also saved there. Later kernels resolve
+ * exactly those artifacts instead of the coordinates, pinning the versions that were resolved the
+ * first time even if the coordinates are a version range or a newer version is released.
+ */
+public class ResolutionCache {
+    private static final int LOCKFILE_FORMAT_VERSION = 2;
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    /**
+     * What was resolved. Two resolutions with the same key are expected to produce the same
+     * jars.
+     */
+    public static class Key {
+        private final String coordinates;
+        private final List<String> repositories;
+        private final List<String> confs;
+
+        public Key(String coordinates, List<String> repositories, List<String> confs) {
+            this.coordinates = coordinates;
+            this.repositories = new ArrayList<>(repositories);
+            this.confs = new ArrayList<>(confs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return coordinates.equals(key.coordinates)
+                    && repositories.equals(key.repositories)
+                    && confs.equals(key.confs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(coordinates, repositories, confs);
+        }
+
+        @Override
+        public String toString() {
+            return coordinates + " from " + repositories + " in " + confs;
+        }
+    }
+
+    /**
+     * An artifact that a resolution is locked to.
+     */
+    public static class LockedArtifact {
+        private final String organisation;
+        private final String module;
+        private final String revision;
+        private final String name;
+        private final String type;
+        private final String ext;
+        private final String classifier;
+
+        /**
+         * @param classifier the maven classifier of the artifact or {@code null} if it doesn't have one.
+         */
+        public LockedArtifact(String organisation, String module, String revision, String name, String type, String ext, String classifier) {
+            this.organisation = organisation;
+            this.module = module;
+            this.revision = revision;
+            this.name = name;
+            this.type = type;
+            this.ext = ext;
+            this.classifier = classifier;
+        }
+
+        public String getOrganisation() {
+            return this.organisation;
+        }
+
+        public String getModule() {
+            return this.module;
+        }
+
+        public String getRevision() {
+            return this.revision;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public String getExt() {
+            return this.ext;
+        }
+
+        public String getClassifier() {
+            return this.classifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LockedArtifact that = (LockedArtifact) o;
+            return organisation.equals(that.organisation)
+                    && module.equals(that.module)
+                    && revision.equals(that.revision)
+                    && name.equals(that.name)
+                    && type.equals(that.type)
+                    && ext.equals(that.ext)
+                    && Objects.equals(classifier, that.classifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(organisation, module, revision, name, type, ext, classifier);
+        }
+
+        @Override
+        public String toString() {
+            return organisation + ":" + module + ":" + revision + " " + name
+                    + (classifier != null ? "-" + classifier : "") + "." + ext + " (" + type + ")";
+        }
+    }
+
+    // The layout of the lockfile.
+    private static class Lockfile {
+        private int version = LOCKFILE_FORMAT_VERSION;
+        private List<Resolution> resolutions = new ArrayList<>();
+    }
+
+    private static class Resolution {
+        private String coordinates;
+        private List<String> repositories;
+        private List<String> confs;
+        private List<LockedArtifact> artifacts;
+    }
+
+    private final Path lockfile;
+    private final Map<Key, List<File>> resolved = new HashMap<>();
+    private Map<Key, List<LockedArtifact>> locked = null;
+
+    /**
+     * @param lockfile the file to save the resolutions in or {@code null} to only remember them in
+     *                 memory.
+     */
+    public ResolutionCache(Path lockfile) {
+        this.lockfile = lockfile;
+    }
+
+    public Path getLockfile() {
+        return this.lockfile;
+    }
+
+    private Map<Key, List<LockedArtifact>> locked() {
+        if (this.locked != null)
+            return this.locked;
+
+        this.locked = new LinkedHashMap<>();
+        if (this.lockfile == null || !Files.isRegularFile(this.lockfile))
+            return this.locked;
+
+        try (Reader in = Files.newBufferedReader(this.lockfile, StandardCharsets.UTF_8)) {
+            Lockfile contents = GSON.fromJson(in, Lockfile.class);
+            if (contents == null)
+                return this.locked;
+
+            if (contents.version != LOCKFILE_FORMAT_VERSION) {
+                // The dependencies are resolved again and locked in the current format.
+                System.err.printf("Warning: ignoring dependency lockfile '%s' with unsupported version %d, it will be replaced%n", this.lockfile, contents.version);
+                return this.locked;
+            }
+
+            for (Resolution r : contents.resolutions)
+                this.locked.put(new Key(r.coordinates, r.repositories, r.confs), r.artifacts);
+        } catch (IOException | JsonParseException e) {
+            System.err.printf("Warning: ignoring dependency lockfile '%s' that can't be read, it will be replaced: %s%n", this.lockfile, e.getMessage());
+            this.locked.clear();
+        }
+
+        return this.locked;
+    }
+
+    private void save() {
+        if (this.lockfile == null)
+            return;
+
+        Lockfile contents = new Lockfile();
+        this.locked.forEach((key, artifacts) -> {
+            Resolution r = new Resolution();
+            r.coordinates = key.coordinates;
+            r.repositories = key.repositories;
+            r.confs = key.confs;
+            r.artifacts = artifacts;
+            contents.resolutions.add(r);
+        });
+
+        try {
+            Path parent = this.lockfile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+
+            // Replace the whole file at once so a crash can't leave a partially written lockfile.
+            Path temp = Files.createTempFile(parent, ".ijava-lock-", ".tmp");
+            try {
+                try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    GSON.toJson(contents, out);
+                }
+                Files.move(temp, this.lockfile, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // The resolution still succeeded, it just isn't locked for later kernels.
+            System.err.printf("Warning: could not write dependency lockfile '%s': %s%n", this.lockfile, e.getMessage());
+        }
+    }
+
+    /**
+     * Look up the jars previously resolved for the key by this cache.
+     *
+     * @param key what to look up.
+     *
+     * @return the jars or {@code null} if the key has not been resolved or if any of the jars no
+     *         longer exist.
+     */
+    public synchronized List<File> get(Key key) {
+        List<File> files = this.resolved.get(key);
+        if (files == null)
+            return null;
+
+        return files.stream().allMatch(File::isFile) ? files : null;
+    }
+
+    /**
+     * Look up the artifacts that the key is locked to, either by an earlier resolution or by the
+     * lockfile.
+     *
+     * @param key what to look up.
+     *
+     * @return the artifacts to resolve instead of the key or {@code null} if the key isn't locked.
+     */
+    public synchronized List<LockedArtifact> getLocked(Key key) {
+        return this.locked().get(key);
+    }
+
+    /**
+     * Remember a resolution, saving the artifacts to the lockfile if there is one.
+     *
+     * @param key       what was resolved.
+     * @param artifacts the artifacts that it resolved to.
+     * @param jars      the local files of the {@code artifacts}.
+     */
+    public synchronized void put(Key key, List<LockedArtifact> artifacts, List<File> jars) {
+        this.resolved.put(key, new ArrayList<>(jars));
+
+        List<LockedArtifact> copy = new ArrayList<>(artifacts);
+        if (!copy.equals(this.locked().put(key, copy)))
+            this.save();
+    }
+}
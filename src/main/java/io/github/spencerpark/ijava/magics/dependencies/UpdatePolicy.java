@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.magics.dependencies;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * How often to check a repository for updates to the artifacts that are already cached. This mirrors
+ * the {@code updatePolicy} of a maven repository. Artifacts that are not cached are always looked up.
+ * <ul>
+ *     <li>{@code never} only use what is cached.</li>
+ *     <li>{@code daily} (default) check at most once a day.</li>
+ *     <li>{@code interval:N} check at most once every {@code N} minutes.</li>
+ *     <li>{@code always} check on every resolution.</li>
+ * </ul>
+ */
+public class UpdatePolicy {
+    private static final Pattern POLICY_PATTERN = Pattern.compile("^(?<kind>[A-Za-z]+)(?::(?<minutes>\\d+))?$");
+
+    public static final UpdatePolicy NEVER = new UpdatePolicy("never", Long.MAX_VALUE);
+    public static final UpdatePolicy DAILY = new UpdatePolicy("daily", TimeUnit.DAYS.toMillis(1));
+    public static final UpdatePolicy ALWAYS = new UpdatePolicy("always", 0);
+
+    public static UpdatePolicy interval(long minutes) {
+        if (minutes < 0)
+            throw new IllegalArgumentException("An update interval cannot be negative: " + minutes);
+        return new UpdatePolicy("interval:" + minutes, TimeUnit.MINUTES.toMillis(minutes));
+    }
+
+    public static UpdatePolicy parse(String policy) {
+        Matcher m = POLICY_PATTERN.matcher(policy.trim());
+        if (!m.matches())
+            throw new IllegalArgumentException("Invalid update policy '" + policy + "'. Expected one of never, daily, interval:N or always.");
+
+        String kind = m.group("kind").toLowerCase();
+        String minutes = m.group("minutes");
+
+        if (!kind.equals("interval") && minutes != null)
+            throw new IllegalArgumentException("Only an interval update policy takes a number of minutes: " + policy);
+
+        switch (kind) {
+            case "never":
+                return NEVER;
+            case "daily":
+                return DAILY;
+            case "always":
+                return ALWAYS;
+            case "interval":
+                if (minutes == null)
+                    throw new IllegalArgumentException("An interval update policy requires a number of minutes (ex: 'interval:60'): " + policy);
+                return UpdatePolicy.interval(Long.parseLong(minutes));
+            default:
+                throw new IllegalArgumentException("Invalid update policy kind: " + kind);
+        }
+    }
+
+    private final String name;
+    private final long intervalMillis;
+
+    private UpdatePolicy(String name, long intervalMillis) {
+        this.name = name;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * @return how long, in milliseconds, what is known about a repository remains valid. {@link Long#MAX_VALUE}
+     *         if it never expires.
+     */
+    public long getIntervalMillis() {
+        return this.intervalMillis;
+    }
+
+    /**
+     * @return true if {@link #isDue(long, long)} depends on when the repository was last checked, false if
+     *         it always or never checks.
+     */
+    public boolean dependsOnLastCheck() {
+        return this.intervalMillis != 0 && this.intervalMillis != Long.MAX_VALUE;
+    }
+
+    /**
+     * @param lastChecked the time, in milliseconds since the epoch, that the repository was last checked
+     *                    for updates or {@code -1} if it has never been checked.
+     * @param now         the current time in milliseconds since the epoch.
+     *
+     * @return true if the repository should be checked for updates.
+     */
+    public boolean isDue(long lastChecked, long now) {
+        if (!this.dependsOnLastCheck()) return this.intervalMillis == 0;
+        return lastChecked < 0 || now - lastChecked >= this.intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
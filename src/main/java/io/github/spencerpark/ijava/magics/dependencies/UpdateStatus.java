@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Spencer Park
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.spencerpark.ijava.magics.dependencies;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Properties;
+
+/**
+ * Records when each repository was last checked for updates to each module. This is saved alongside
+ * the ivy cache that the checks filled so that an {@link UpdatePolicy} is honoured across kernels.
+ * A check only covers the modules that were resolved, so checking a repository for one module
+ * doesn't postpone the first check for another.
+ */
+public class UpdateStatus {
+    public static final String FILE_NAME = "ijava-update-status.properties";
+
+    private final Path file;
+    private final Properties lastChecked = new Properties();
+
+    /**
+     * @param cacheDir the ivy cache directory that the status describes.
+     */
+    public UpdateStatus(Path cacheDir) {
+        this.file = cacheDir.resolve(FILE_NAME);
+
+        if (Files.isRegularFile(this.file)) {
+            try (InputStream in = Files.newInputStream(this.file)) {
+                this.lastChecked.load(in);
+            } catch (IOException e) {
+                // The status is only an optimization, without it every repository is simply due for a check.
+                this.lastChecked.clear();
+            }
+        }
+    }
+
+    private static String key(String repository, String module) {
+        return repository + " " + module;
+    }
+
+    /**
+     * @param repository the location of the repository.
+     * @param module     the module that was resolved, ex: {@code org#name;rev}.
+     *
+     * @return the time the repository was last checked for the module, in milliseconds since the epoch,
+     *         or {@code -1} if it has not been checked.
+     */
+    public long getLastChecked(String repository, String module) {
+        return UpdateStatus.parseTime(this.lastChecked.getProperty(UpdateStatus.key(repository, module)));
+    }
+
+    private static long parseTime(String time) {
+        if (time == null)
+            return -1;
+
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param repositories the locations of the repositories that were checked.
+     * @param modules      the modules that they were checked for.
+     * @param time         the time of the check, in milliseconds since the epoch.
+     * @param expiresAfter how long, in milliseconds, a check can postpone the next one. Older checks are
+     *                     dropped when saving so that the status doesn't grow with every module ever resolved.
+     *
+     * @throws IOException if the status can't be saved. It is still remembered by this instance.
+     */
+    public void markChecked(Collection<String> repositories, Collection<String> modules, long time, long expiresAfter) throws IOException {
+        if (repositories.isEmpty() || modules.isEmpty())
+            return;
+
+        this.lastChecked.stringPropertyNames().forEach(key -> {
+            if (time - UpdateStatus.parseTime(this.lastChecked.getProperty(key)) >= expiresAfter)
+                this.lastChecked.remove(key);
+        });
+
+        for (String repository : repositories) {
+            for (String module : modules)
+                this.lastChecked.setProperty(UpdateStatus.key(repository, module), String.valueOf(time));
+        }
+
+        Files.createDirectories(this.file.getParent());
+
+        Path temp = Files.createTempFile(this.file.getParent(), ".ijava-update-status-", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                this.lastChecked.store(out, "When IJava last checked each repository for updates to each module");
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package io.github.spencerpark.ijava.runtime;
 
 import io.github.spencerpark.ijava.JavaKernel;
+import io.github.spencerpark.ijava.execution.Base64Payload;
 import io.github.spencerpark.jupyter.kernel.display.DisplayData;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.UUID;
 
 public class Display {
@@ -10,7 +16,7 @@ public class Display {
         JavaKernel kernel = Kernel.getKernelInstance();
 
         if (kernel != null) {
-            return kernel.getRenderer().render(o);
+            return kernel.render(o);
         } else {
             throw new RuntimeException("No IJava kernel running");
         }
@@ -20,7 +26,7 @@ public class Display {
         JavaKernel kernel = Kernel.getKernelInstance();
 
         if (kernel != null) {
-            return kernel.getRenderer().renderAs(o, as);
+            return kernel.renderAs(o, as);
         } else {
             throw new RuntimeException("No IJava kernel running");
         }
@@ -30,7 +36,7 @@ public class Display {
         JavaKernel kernel = Kernel.getKernelInstance();
 
         if (kernel != null) {
-            DisplayData data = kernel.getRenderer().render(o);
+            DisplayData data = kernel.render(o);
 
             String id = data.getDisplayId();
             if (id == null) {
@@ -50,7 +56,7 @@ public class Display {
         JavaKernel kernel = Kernel.getKernelInstance();
 
         if (kernel != null) {
-            DisplayData data = kernel.getRenderer().renderAs(o, as);
+            DisplayData data = kernel.renderAs(o, as);
 
             String id = data.getDisplayId();
             if (id == null) {
@@ -70,8 +76,8 @@ public class Display {
         JavaKernel kernel = Kernel.getKernelInstance();
 
         if (kernel != null) {
-            DisplayData data = kernel.getRenderer().render(o);
-            kernel.getIO().display.updateDisplay(id, data);
+            DisplayData data = kernel.render(o);
+            kernel.updateDisplay(id, data);
         } else {
             throw new RuntimeException("No IJava kernel running");
         }
@@ -81,8 +87,73 @@ public class Display {
         JavaKernel kernel = Kernel.getKernelInstance();
 
         if (kernel != null) {
-            DisplayData data = kernel.getRenderer().renderAs(o, as);
-            kernel.getIO().display.updateDisplay(id, data);
+            DisplayData data = kernel.renderAs(o, as);
+            kernel.updateDisplay(id, data);
+        } else {
+            throw new RuntimeException("No IJava kernel running");
+        }
+    }
+
+    public static void setRenderLimits(int maxElements, int maxChars) {
+        JavaKernel kernel = Kernel.getKernelInstance();
+
+        if (kernel != null) {
+            kernel.getBoundedRenderer().setMaxElements(maxElements);
+            kernel.getBoundedRenderer().setMaxChars(maxChars);
+        } else {
+            throw new RuntimeException("No IJava kernel running");
+        }
+    }
+
+    public static DisplayData renderBytes(ByteBuffer data, String mimeType) {
+        return bytesData(Base64Payload.encode(data), mimeType);
+    }
+
+    public static DisplayData renderBytes(Path file, String mimeType) {
+        try {
+            return bytesData(Base64Payload.encode(file), mimeType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static DisplayData renderBytes(InputStream in, String mimeType) {
+        try {
+            return bytesData(Base64Payload.encode(in), mimeType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static String displayBytes(ByteBuffer data, String mimeType) {
+        return displayData(renderBytes(data, mimeType));
+    }
+
+    public static String displayBytes(Path file, String mimeType) {
+        return displayData(renderBytes(file, mimeType));
+    }
+
+    public static String displayBytes(InputStream in, String mimeType) {
+        return displayData(renderBytes(in, mimeType));
+    }
+
+    private static DisplayData bytesData(String encoded, String mimeType) {
+        int padding = encoded.endsWith("==") ? 2 : encoded.endsWith("=") ? 1 : 0;
+        DisplayData data = new DisplayData(String.format("%s (%d bytes)", mimeType, encoded.length() / 4 * 3 - padding));
+        data.putData(mimeType, encoded);
+        return data;
+    }
+
+    private static String displayData(DisplayData data) {
+        JavaKernel kernel = Kernel.getKernelInstance();
+
+        if (kernel != null) {
+            String id = UUID.randomUUID().toString();
+            data.setDisplayId(id);
+
+            kernel.display(data);
+
+            return id;
         } else {
             throw new RuntimeException("No IJava kernel running");
         }